@@ -0,0 +1,67 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the draining of the process output by the executors, fed with a synthetic gpt output
+ * (operator messages followed by the progress line).
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DrainBenchmark {
+
+    @Param({"100", "10000"})
+    private int lines;
+
+    private byte[] output;
+    private Executor executor;
+    private int progress;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.lines; i++) {
+            builder.append("INFO: org.esa.snap.core.gpf.operators.tooladapter.ToolAdapterOp: processing tile ")
+                   .append(i).append(" of ").append(this.lines).append("\n");
+        }
+        builder.append("Executing processing graph\n");
+        for (int i = 1; i <= 10; i++) {
+            builder.append("....").append(i * 10).append("%");
+        }
+        builder.append(" done.\n");
+        this.output = builder.toString().getBytes(StandardCharsets.UTF_8);
+        this.executor = new Executor("localhost", Collections.emptyList(), false, null) {
+            @Override
+            public int execute(List<String> outLines, boolean logMessages) {
+                return 0;
+            }
+        };
+        this.executor.setProgressListener(percent -> this.progress = percent);
+    }
+
+    @Benchmark
+    public List<String> drainToList() throws Exception {
+        List<String> outLines = new ArrayList<>();
+        this.executor.drain(new ByteArrayInputStream(this.output), outLines, false);
+        return outLines;
+    }
+
+    @Benchmark
+    public int drainDiscarding() throws Exception {
+        this.executor.drain(new ByteArrayInputStream(this.output), null, false);
+        return this.progress;
+    }
+}
@@ -0,0 +1,190 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the compressions selectable for the intermediate results (NONE, LZW, JPEG), over synthetic
+ * 16-bit reflectance tiles of the default tile size: a smooth (vegetation) field, a field with saturated (cloud)
+ * areas, and noise, the worst case. LZW is the TIFF variant (codes of 9 to 12 bits, horizontal differencing
+ * predictor optional), JPEG is the baseline encoder of the JDK, over the tile scaled to 8 bits (the predictor
+ * does not apply to it). The compression ratio of each option is printed when its trial starts, since the bytes
+ * saved on the network matter as much as the time spent compressing.
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int TILE_SIZE = 512;
+
+    @Param({"smooth", "clouds", "noise"})
+    private String tile;
+
+    @Param({"false", "true"})
+    private boolean predictor;
+
+    private byte[] data;
+    private byte[] buffer;
+    private BufferedImage image;
+    private ByteArrayOutputStream stream;
+
+    @Setup
+    public void setup() throws IOException {
+        short[] samples = new short[TILE_SIZE * TILE_SIZE];
+        Random random = new Random(42);
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                double value;
+                switch (this.tile) {
+                    case "smooth":
+                        value = 1500 + 800 * Math.sin(x / 37.0) * Math.cos(y / 53.0) + random.nextGaussian() * 20;
+                        break;
+                    case "clouds":
+                        value = Math.sin(x / 61.0) + Math.cos(y / 47.0) > 1.2 ? 10000 :
+                                1500 + 800 * Math.sin(x / 37.0) * Math.cos(y / 53.0) + random.nextGaussian() * 20;
+                        break;
+                    default:
+                        value = random.nextInt(10000);
+                }
+                samples[y * TILE_SIZE + x] = (short) value;
+            }
+        }
+        this.image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = new byte[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            pixels[i] = (byte) Math.min(255, Math.max(0, samples[i] / 40));
+        }
+        this.image.getRaster().setDataElements(0, 0, TILE_SIZE, TILE_SIZE, pixels);
+        ImageIO.setUseCache(false);
+        this.stream = new ByteArrayOutputStream(samples.length * 2);
+        if (this.predictor) {
+            // horizontal differencing, as done by the TIFF predictor 2
+            for (int y = 0; y < TILE_SIZE; y++) {
+                for (int x = TILE_SIZE - 1; x > 0; x--) {
+                    samples[y * TILE_SIZE + x] -= samples[y * TILE_SIZE + x - 1];
+                }
+            }
+        }
+        this.data = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            this.data[2 * i] = (byte) (samples[i] >> 8);
+            this.data[2 * i + 1] = (byte) samples[i];
+        }
+        this.buffer = new byte[this.data.length * 2];
+        System.out.println();
+        System.out.printf("%s tile, predictor %s: LZW ratio %.2f, JPEG ratio %.2f%n",
+                          this.tile, this.predictor, ratio(lzw()), ratio(jpeg()));
+    }
+
+    @Benchmark
+    public byte[] none() {
+        return Arrays.copyOf(this.data, this.data.length);
+    }
+
+    @Benchmark
+    public int lzw() {
+        return Lzw.encode(this.data, this.buffer);
+    }
+
+    @Benchmark
+    public int jpeg() throws IOException {
+        this.stream.reset();
+        ImageIO.write(this.image, "jpeg", this.stream);
+        return this.stream.size();
+    }
+
+    private double ratio(int compressedLength) {
+        return (double) this.data.length / compressedLength;
+    }
+
+    /**
+     * TIFF LZW encoder (MSB-first codes, early change of the code width).
+     */
+    static final class Lzw {
+        private static final int CLEAR = 256;
+        private static final int END = 257;
+        private static final int FIRST = 258;
+        private static final int MAX_CODE = 4093;
+        private static final int HASH_SIZE = 1 << 13;
+
+        static int encode(byte[] input, byte[] output) {
+            int[] keys = new int[HASH_SIZE];
+            int[] codes = new int[HASH_SIZE];
+            BitWriter writer = new BitWriter(output);
+            int next = FIRST;
+            int width = 9;
+            Arrays.fill(keys, -1);
+            writer.write(CLEAR, width);
+            int prefix = input[0] & 0xFF;
+            for (int i = 1; i < input.length; i++) {
+                int value = input[i] & 0xFF;
+                int key = (prefix << 8) | value;
+                int slot = (key * 0x9E3779B1 >>> 19) & (HASH_SIZE - 1);
+                while (keys[slot] != -1 && keys[slot] != key) {
+                    slot = (slot + 1) & (HASH_SIZE - 1);
+                }
+                if (keys[slot] == key) {
+                    prefix = codes[slot];
+                    continue;
+                }
+                writer.write(prefix, width);
+                keys[slot] = key;
+                codes[slot] = next++;
+                if (next + 1 > (1 << width) && width < 12) {
+                    width++;
+                }
+                if (next >= MAX_CODE) {
+                    writer.write(CLEAR, width);
+                    Arrays.fill(keys, -1);
+                    next = FIRST;
+                    width = 9;
+                }
+                prefix = value;
+            }
+            writer.write(prefix, width);
+            writer.write(END, width);
+            return writer.flush();
+        }
+    }
+
+    private static final class BitWriter {
+        private final byte[] output;
+        private int position;
+        private long bits;
+        private int count;
+
+        BitWriter(byte[] output) {
+            this.output = output;
+        }
+
+        void write(int code, int width) {
+            this.bits = (this.bits << width) | code;
+            this.count += width;
+            while (this.count >= 8) {
+                this.count -= 8;
+                this.output[this.position++] = (byte) (this.bits >>> this.count);
+            }
+        }
+
+        int flush() {
+            if (this.count > 0) {
+                this.output[this.position++] = (byte) (this.bits << (8 - this.count));
+                this.count = 0;
+            }
+            return this.position;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the parsing of the operator arguments (Mosaic variable and condition lists)
+ * and of the serialization of long operator chains.
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int size;
+
+    private String mosaicArguments;
+    private GraphDescriptor chain;
+
+    @Setup
+    public void setup() {
+        StringBuilder variables = new StringBuilder("-Pvariables=[");
+        StringBuilder conditions = new StringBuilder("-Pconditions=[");
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) {
+                variables.append(";");
+                conditions.append(";");
+            }
+            variables.append("variable[name=band_").append(i).append(",expression=B").append(i).append(" * 0.0001]");
+            conditions.append("condition[name=valid_").append(i).append(",expression=band_").append(i)
+                      .append(" > 0,output=true]");
+        }
+        variables.append("]");
+        conditions.append("]");
+        this.mosaicArguments = "\"" + variables + " " + conditions +
+                " -Pcrs=EPSG:4326 -PwestBound=-10.0 -PnorthBound=75.0 -PeastBound=30.0 -PsouthBound=35.0" +
+                " -PpixelSizeX=0.001 -PpixelSizeY=0.001 -Pcombine=OR\"";
+        this.chain = new GraphDescriptor();
+        this.chain.addNode("Read", "-Pfile=" + GraphTemplate.variable("sourceFile"));
+        for (int i = 1; i < this.size; i++) {
+            this.chain.addNode("BandMaths", "-PtargetBand=band_" + i + " -Pexpression=B4 + " + i);
+        }
+    }
+
+    @Benchmark
+    public GraphNode parseMosaicArguments() {
+        return new GraphNode("Mosaic", this.mosaicArguments, null);
+    }
+
+    @Benchmark
+    public void serializeChain(Blackhole blackhole) {
+        blackhole.consume(this.chain.toString());
+    }
+
+    @Benchmark
+    public GraphTemplate compileChain() {
+        return GraphTemplate.compile(this.chain);
+    }
+}
@@ -0,0 +1,57 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the cost of a log call for concurrent writers, such as the slots forwarding the output
+ * of their jobs. Only the cost seen by the logging threads is measured, the messages being written
+ * by the logger thread (or dropped when the buffer is full).
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggerBenchmark {
+
+    private Path logFile;
+    private Logger.ScopeLogger logger;
+
+    @Setup
+    public void setup() throws IOException {
+        this.logFile = Files.createTempFile("s2cep-bench", ".log");
+        this.logger = new Logger.ScopeLogger(this.logFile.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.logger.close();
+        Files.deleteIfExists(this.logFile);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singleWriter() {
+        this.logger.info("Job #%s [%s] completed on [[%s]] with state %s", 42, "S2A_MSIL1C.SAFE", "slave-01", "DONE");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void concurrentWriters() {
+        this.logger.info("Job #%s [%s] completed on [[%s]] with state %s", 42, "S2A_MSIL1C.SAFE", "slave-01", "DONE");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void concurrentPlainLines() {
+        this.logger.info("....10%....20%....30%....40%....50%....60%....70%....80%....90% done.");
+    }
+}
@@ -0,0 +1,76 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the traversal of input folders, over a synthetic tree resembling a folder
+ * of Sentinel-2 products (one folder per product, each holding granules and metadata files).
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilitiesBenchmark {
+
+    private static final int GRANULES = 10;
+    private static final int FILES_PER_GRANULE = 15;
+
+    @Param({"10", "100"})
+    private int products;
+
+    private Path root;
+    private Path product;
+
+    @Setup
+    public void setup() throws IOException {
+        this.root = Files.createTempDirectory("s2cep-bench");
+        for (int p = 0; p < this.products; p++) {
+            Path folder = Files.createDirectory(this.root.resolve(
+                    String.format("S2A_MSIL1C_20170105T013442_N0204_R031_T%05d_20170105T013443.SAFE", p)));
+            for (int g = 0; g < GRANULES; g++) {
+                Path granule = Files.createDirectories(folder.resolve("GRANULE").resolve("L1C_T" + p + "_" + g));
+                for (int f = 0; f < FILES_PER_GRANULE; f++) {
+                    Files.createFile(granule.resolve("B" + f + ".jp2"));
+                }
+            }
+            Files.createFile(folder.resolve("MTD_MSIL1C.xml"));
+            Files.createFile(folder.resolve("manifest.safe"));
+            this.product = folder;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Path> listFiles() throws IOException {
+        return Utilities.listFiles(this.root, 0);
+    }
+
+    @Benchmark
+    public List<Path> listFilesShallow() throws IOException {
+        return Utilities.listFiles(this.root, 2);
+    }
+
+    @Benchmark
+    public Optional<Path> findFirst() throws IOException {
+        return Utilities.findFirst(this.product, ".*MTD_MSIL1C\\.xml");
+    }
+}
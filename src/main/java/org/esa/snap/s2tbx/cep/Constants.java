@@ -18,11 +18,36 @@ public class Constants {
     public static final String PARAM_USER = "u";
     public static final String PARAM_PASSWORD = "p";
     public static final String PARAM_SLAVES = "s";
+    public static final String PARAM_SLOTS_PER_NODE = "ns";
+    public static final String PARAM_WATCH = "wm";
+    public static final String PARAM_SPECULATION = "sx";
+    public static final String PARAM_BATCH = "bs";
+    public static final String PARAM_AGENT = "ag";
+    public static final String PARAM_STALL = "st";
+    public static final String PARAM_STAGING = "stg";
     public static final String PARAM_RESUME_MASTER = "r";
     public static final String PARAM_USE_L1C = "l1c";
     public static final String PARAM_USE_L2A = "l2a";
     public static final int DEFAULT_TIMEOUT = 15;
+    public static final int DEFAULT_SLOTS_PER_NODE = 1;
+    public static final int DEFAULT_CORES_PER_SLOT = 4;
+    public static final String DEFAULT_SCRATCH_FOLDER = "/tmp";
+    public static final long MIN_FREE_MEMORY = 1024;
+    public static final long MIN_FREE_DISK = 2048;
+    public static final int ADMIN_THREADS = 4;
+    public static final int QUEUED_JOBS_PER_SLOT = 2;
+    public static final int DEFAULT_WATCH_POLL_INTERVAL = 60;
+    public static final int DEFAULT_WATCH_QUIET_PERIOD = 30;
+    public static final double DEFAULT_SPECULATION_FACTOR = 2.0;
+    public static final int DEFAULT_STALL_TIMEOUT = 15;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 4;
+    public static final long DEFAULT_BATCH_MEMORY = 2048;
+    public static final int DEFAULT_AGENT_PORT = 7979;
+    public static final long DEFAULT_METRICS_INTERVAL = 60;
+    public static final int DEFAULT_STAGING_STREAMS = 4;
+    public static final int DEFAULT_PREFETCH_DEPTH = 1;
     public static final String DEFAULT_PERMISSIONS = "rwxr-xr-x";
+    public static final String MASTER_INPUT_PERMISSIONS = "rwxrwxrwx";
     public static final String KEY_SLAVE_NODE_PREFIX = "slave.node";
     public static final String SLAVE_COMMAND_LINE_TEMPLATE_LINUX = "slave.command.line.template.linux";
     public static final String SLAVE_COMMAND_LINE_TEMPLATE_WINDOWS = "slave.command.line.template.windows";
@@ -34,16 +59,47 @@ public class Constants {
     public static final String SLAVE_GPT_PATH_WINDOWS = "slave.gpt.path.windows";
     public static final String SLAVE_USERNAME = "slave.username";
     public static final String SLAVE_PASSWORD = "slave.password";
+    public static final String SLAVE_BATCH_COMMAND_LINE_TEMPLATE_LINUX = "slave.batch.command.line.template.linux";
+    public static final String SLAVE_BATCH_COMMAND_LINE_TEMPLATE_WINDOWS = "slave.batch.command.line.template.windows";
+    public static final String SLAVE_BATCH_MEMORY = "slave.batch.memory.per.product";
+    public static final String SLAVE_CORES_PER_SLOT = "slave.cores.per.slot";
+    public static final String SLAVE_SCRATCH_FOLDER = "slave.scratch.folder";
+    public static final String SLAVE_OUTPUT_MODE = "slave.output.mode";
+    public static final String OUTPUT_MODE_SHARE = "share";
+    public static final String OUTPUT_MODE_SCRATCH = "scratch";
+    public static final String SLAVE_OUTPUT_COMPRESSION = "slave.output.compression";
+    public static final String SLAVE_OUTPUT_TILE_SIZE = "slave.output.tile.size";
+    public static final String SLAVE_OUTPUT_BANDS = "slave.output.bands";
+    public static final String AGENT_TOKEN = "agent.token";
+    public static final String METRICS_INTERVAL = "metrics.interval";
+    public static final String METRICS_PROMETHEUS_FILE = "metrics.prometheus.file";
+    public static final String LOCAL_SLOT_MEMORY = "local.slot.memory";
+    public static final String LOCAL_SLOT_THREADS = "local.slot.threads";
+    public static final String SSH_CHANNELS_PER_SESSION = "ssh.channels.per.session";
+    public static final String SSH_SESSIONS_PER_HOST = "ssh.sessions.per.host";
+    public static final String STAGING_STREAMS = "staging.streams";
+    public static final String STAGING_COMPRESSION = "staging.compression";
+    public static final String STAGING_PREFETCH_DEPTH = "staging.prefetch.depth";
     public static final String PLACEHOLDER_GPT = "$gpt";
     public static final String PLACEHOLDER_INPUT_FOLDER = "$in";
     public static final String PLACEHOLDER_INPUT_FILE = "$inputFile";
     public static final String PLACEHOLDER_SHARED_FOLDER = "$smf";
     public static final String PLACEHOLDER_OUTPUT_FOLDER = "$out";
+    public static final String PLACEHOLDER_GRAPH_PARAMS = "$params";
+    public static final String PLACEHOLDER_GPT_TUNING = "$tuning";
     public static final String PLACEHOLDER_MASTER_INPUT = "$files";
     public static final String PLACEHOLDER_MASTER_OPT = "$opt ";
     public static final String CONST_WINDOWS = "windows";
     public static final String CONST_LINUX = "linux";
     public static final String SHELL_COMMAND_SEPARATOR = ";";
+    public static final String JOURNAL_FILE_NAME = "jobs.journal";
+    public static final String METRICS_FILE_NAME = "s2cep_metrics.json";
+    public static final String JOB_LOG_FOLDER = "jobs";
+    public static final String SLAVE_GRAPH_FILE_NAME = "slaveGraph.xml";
+    public static final String SLAVE_BATCH_GRAPH_FILE_NAME = "slaveGraph_%s.xml";
+    public static final String SLAVE_OUTPUT_FORMAT = "GeoTIFF-BigTIFF";
+    public static final String GRAPH_VAR_SOURCE = "sourceFile";
+    public static final String GRAPH_VAR_TARGET = "targetFile";
     public static final String MASTER_CMD_OUTPUT_SECTION = " -f GeoTIFF-BigTIFF -t $out/master.tif";
     public static final String SLAVE_CMD_OUTPUT_SECTION = " -f GeoTIFF-BigTIFF -t $out/%s.tif";
 }
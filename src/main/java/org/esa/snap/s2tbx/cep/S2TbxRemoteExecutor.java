@@ -1,24 +1,47 @@
 package org.esa.snap.s2tbx.cep;
 
 import org.apache.commons.cli.*;
+import org.esa.snap.s2tbx.cep.agent.AgentServer;
+import org.esa.snap.s2tbx.cep.dispatch.Job;
+import org.esa.snap.s2tbx.cep.dispatch.JobDispatcher;
+import org.esa.snap.s2tbx.cep.dispatch.JobJournal;
+import org.esa.snap.s2tbx.cep.dispatch.JobState;
+import org.esa.snap.s2tbx.cep.dispatch.Node;
+import org.esa.snap.s2tbx.cep.dispatch.NodeProber;
+import org.esa.snap.s2tbx.cep.dispatch.NodeStatus;
+import org.esa.snap.s2tbx.cep.dispatch.ResultResolver;
+import org.esa.snap.s2tbx.cep.dispatch.RunMetrics;
+import org.esa.snap.s2tbx.cep.dispatch.SFTPStager;
+import org.esa.snap.s2tbx.cep.dispatch.ScratchOutputStager;
+import org.esa.snap.s2tbx.cep.dispatch.Stager;
 import org.esa.snap.s2tbx.cep.executors.Executor;
 import org.esa.snap.s2tbx.cep.executors.ExecutorType;
+import org.esa.snap.s2tbx.cep.executors.SSHSessionPool;
 import org.esa.snap.s2tbx.cep.util.GraphDescriptor;
 import org.esa.snap.s2tbx.cep.util.GraphNode;
+import org.esa.snap.s2tbx.cep.util.GraphTemplate;
+import org.esa.snap.s2tbx.cep.util.IntermediateFormat;
 import org.esa.snap.s2tbx.cep.util.Logger;
+import org.esa.snap.s2tbx.cep.util.ProductScanner;
+import org.esa.snap.s2tbx.cep.util.ProductWatcher;
 import org.esa.snap.s2tbx.cep.util.Utilities;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -55,9 +78,21 @@ public class S2TbxRemoteExecutor {
     private static Path masterLocalFolder;
     private static Path masterSharedFolder;
     private static Path slaveMountFolder;
-    private static final ExecutorService executorService;
-    private static final String l1cMetadataPattern = ".*(S2A|S2B|S2_)_([A-Z|0-9]{4})_([A-Z|0-9|_]{4})([A-Z|0-9]{3})L1C_([A-Z|0-9|_]{4})_([0-9]{8}T[0-9]{6})([A-Z|0-9|_]+).(xml|XML)";
-    private static final String l2aMetadataPattern = ".*(S2A|S2B|S2_)_([A-Z|0-9]{4})_([A-Z|0-9|_]{4})([A-Z|0-9]{3})L2A_([A-Z|0-9|_]{4})_([0-9]{8}T[0-9]{6})([A-Z|0-9|_]+).(xml|XML)";
+    /**
+     * Runs the master job
+     */
+    private static final ExecutorService masterExecutorService;
+    /**
+     * Runs the administrative commands (permissions, mounts, cleanup)
+     */
+    private static final ExecutorService adminExecutorService;
+    /**
+     * Runs the slave job slots. Sized after the total number of slots in the cluster.
+     */
+    private static ExecutorService slaveExecutorService;
+    private static final Pattern l1cMetadataPattern = Pattern.compile(".*(S2A|S2B|S2_)_([A-Z|0-9]{4})_([A-Z|0-9|_]{4})([A-Z|0-9]{3})L1C_([A-Z|0-9|_]{4})_([0-9]{8}T[0-9]{6})([A-Z|0-9|_]+).(xml|XML)");
+    private static final Pattern l2aMetadataPattern = Pattern.compile(".*(S2A|S2B|S2_)_([A-Z|0-9]{4})_([A-Z|0-9|_]{4})([A-Z|0-9]{3})L2A_([A-Z|0-9|_]{4})_([0-9]{8}T[0-9]{6})([A-Z|0-9|_]+).(xml|XML)");
+    private static final String metadataGlob = "*.{xml,XML}";
     private static final Pattern l1cFolderPattern = Pattern.compile(".*(S2A|S2B|S2_)_([A-Z|0-9]{4})_([A-Z|0-9|_]{4})([A-Z|0-9]{3})L1C_([A-Z|0-9|_]{4})_([0-9]{8}T[0-9]{6})([A-Z|0-9|_]+).SAFE");
     private static final Pattern l2aFolderPattern = Pattern.compile(".*(S2A|S2B|S2_)_([A-Z|0-9]{4})_([A-Z|0-9|_]{4})([A-Z|0-9]{3})L2A_([A-Z|0-9|_]{4})_([0-9]{8}T[0-9]{6})([A-Z|0-9|_]+).SAFE");
 
@@ -122,7 +157,7 @@ public class S2TbxRemoteExecutor {
         options.addOption(Option.builder(Constants.PARAM_TIMEOUT)
                 .longOpt("wait")
                 .argName("wait.for.slave")
-                .desc("The amount of time (in minutes) to wait for a slave node to complete its execution")
+                .desc("The amount of time (in minutes) to wait for a slave job to complete its execution. A job running longer is stopped")
                 .hasArg()
                 .optionalArg(true)
                 .build());
@@ -143,10 +178,65 @@ public class S2TbxRemoteExecutor {
         options.addOption(Option.builder(Constants.PARAM_SLAVES)
                 .longOpt("slaves")
                 .argName("slave.nodes")
-                .desc("The names or IPs of the slave nodes. Expected format: nodename1:<windows|linux>,nodename2:<windows|linux>,...")
+                .desc("The names or IPs of the slave nodes, optionally followed by their number of slots. " +
+                      "Expected format: nodename1:<windows|linux>[:slots],nodename2:<windows|linux>[:slots],... " +
+                      "The jobs of a localhost node are executed as local processes")
                 .hasArg()
                 .required()
                 .build());
+        options.addOption(Option.builder(Constants.PARAM_SLOTS_PER_NODE)
+                .longOpt("nodeslots")
+                .argName("slots.per.node")
+                .desc("The maximum number of jobs a slave node runs concurrently (default: derived from the core count of the node)")
+                .hasArg()
+                .optionalArg(true)
+                .build());
+        options.addOption(Option.builder(Constants.PARAM_WATCH)
+                .longOpt("watch")
+                .argName("poll.interval")
+                .desc("Keeps running and processes the products as they arrive in the input folder, " +
+                      "which is also listed every poll.interval seconds (default 60). The master operators are not executed")
+                .hasArg()
+                .optionalArg(true)
+                .build());
+        options.addOption(Option.builder(Constants.PARAM_BATCH)
+                .longOpt("batch")
+                .argName("max.batch.size")
+                .desc("Executes up to max.batch.size products (default 4) in a single gpt invocation, " +
+                      "the actual number depending on the memory of the slave node")
+                .hasArg()
+                .optionalArg(true)
+                .build());
+        options.addOption(Option.builder(Constants.PARAM_AGENT)
+                .longOpt("agent")
+                .argName("agent.port")
+                .desc("Executes the slave jobs through the agents resident on the slave nodes, listening on agent.port " +
+                      "(default 7979). For a localhost slave, an agent is started in this process if none is running")
+                .hasArg()
+                .optionalArg(true)
+                .build());
+        options.addOption(Option.builder(Constants.PARAM_SPECULATION)
+                .longOpt("speculate")
+                .argName("speculation.factor")
+                .desc("Launches a backup copy, on another slave node, of a job running longer than speculation.factor " +
+                      "times the median job duration, when slots are idle (default 2)")
+                .hasArg()
+                .optionalArg(true)
+                .build());
+        options.addOption(Option.builder(Constants.PARAM_STALL)
+                .longOpt("stall")
+                .argName("stall.timeout")
+                .desc("Stops and reschedules a job whose progress does not advance for stall.timeout minutes (default 15)")
+                .hasArg()
+                .optionalArg(true)
+                .build());
+        options.addOption(Option.builder(Constants.PARAM_STAGING)
+                .longOpt("stage")
+                .argName("staging")
+                .desc("Copies the inputs to the scratch folder of the Linux slaves and the results back over SFTP, " +
+                      "instead of using the shared folder")
+                .hasArg(false)
+                .build());
         options.addOption(Option.builder(Constants.PARAM_RESUME_MASTER)
                 .longOpt("resume")
                 .argName("resume.master")
@@ -182,7 +272,8 @@ public class S2TbxRemoteExecutor {
             }
             //System.out.println("The topology.config file could not be found alongside the jar! Will use the embedded one.");
 /*        }*/
-        executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        masterExecutorService = Executors.newSingleThreadExecutor(Utilities.newThreadFactory("master"));
+        adminExecutorService = Executors.newFixedThreadPool(Constants.ADMIN_THREADS, Utilities.newThreadFactory("admin"));
     }
 
     public static void main(String[] args) throws Exception {
@@ -202,6 +293,21 @@ public class S2TbxRemoteExecutor {
 
         LinkedHashMap<String, String> nodes = new LinkedHashMap<>();
         String commonUser = null, commonPassword = null;
+        int coresPerSlot = Constants.DEFAULT_CORES_PER_SLOT;
+        String scratchFolder = Constants.DEFAULT_SCRATCH_FOLDER;
+        long batchMemory = Constants.DEFAULT_BATCH_MEMORY;
+        String agentToken = null;
+        long localSlotMemory = 0;
+        int localSlotThreads = 0;
+        long metricsInterval = Constants.DEFAULT_METRICS_INTERVAL;
+        String prometheusFile = null;
+        int stagingStreams = Constants.DEFAULT_STAGING_STREAMS;
+        boolean stagingCompression = true;
+        int prefetchDepth = Constants.DEFAULT_PREFETCH_DEPTH;
+        String outputMode = Constants.OUTPUT_MODE_SHARE;
+        String outputCompression = IntermediateFormat.AUTO;
+        String outputBands = IntermediateFormat.AUTO;
+        int outputTileSize = 0;
         String osSuffix = getOSSuffix();
 
         Map<String, CommandTemplate> templates = new HashMap<String, CommandTemplate>() {{
@@ -246,10 +352,65 @@ public class S2TbxRemoteExecutor {
                 case Constants.SLAVE_PASSWORD:
                     commonPassword = props.getProperty(key);
                     break;
+                case Constants.SLAVE_CORES_PER_SLOT:
+                    coresPerSlot = Integer.parseInt(props.getProperty(key));
+                    break;
+                case Constants.LOCAL_SLOT_MEMORY:
+                    localSlotMemory = Long.parseLong(props.getProperty(key));
+                    break;
+                case Constants.LOCAL_SLOT_THREADS:
+                    localSlotThreads = Integer.parseInt(props.getProperty(key));
+                    break;
+                case Constants.AGENT_TOKEN:
+                    agentToken = props.getProperty(key);
+                    break;
+                case Constants.SLAVE_BATCH_MEMORY:
+                    batchMemory = Long.parseLong(props.getProperty(key));
+                    break;
+                case Constants.SLAVE_BATCH_COMMAND_LINE_TEMPLATE_LINUX:
+                    templates.get(Constants.CONST_LINUX).slaveBatchCommand = props.getProperty(key);
+                    break;
+                case Constants.SLAVE_BATCH_COMMAND_LINE_TEMPLATE_WINDOWS:
+                    templates.get(Constants.CONST_WINDOWS).slaveBatchCommand = props.getProperty(key);
+                    break;
+                case Constants.SLAVE_SCRATCH_FOLDER:
+                    scratchFolder = props.getProperty(key);
+                    break;
+                case Constants.SLAVE_OUTPUT_MODE:
+                    outputMode = props.getProperty(key);
+                    break;
+                case Constants.SLAVE_OUTPUT_COMPRESSION:
+                    outputCompression = props.getProperty(key);
+                    break;
+                case Constants.SLAVE_OUTPUT_TILE_SIZE:
+                    outputTileSize = Integer.parseInt(props.getProperty(key));
+                    break;
+                case Constants.SLAVE_OUTPUT_BANDS:
+                    outputBands = props.getProperty(key);
+                    break;
+                case Constants.METRICS_INTERVAL:
+                    metricsInterval = Long.parseLong(props.getProperty(key));
+                    break;
+                case Constants.METRICS_PROMETHEUS_FILE:
+                    prometheusFile = props.getProperty(key);
+                    break;
+                case Constants.SSH_CHANNELS_PER_SESSION:
+                    SSHSessionPool.getInstance().setChannelsPerSession(Integer.parseInt(props.getProperty(key)));
+                    break;
+                case Constants.SSH_SESSIONS_PER_HOST:
+                    SSHSessionPool.getInstance().setSessionsPerHost(Integer.parseInt(props.getProperty(key)));
+                    break;
+                case Constants.STAGING_STREAMS:
+                    stagingStreams = Integer.parseInt(props.getProperty(key));
+                    break;
+                case Constants.STAGING_COMPRESSION:
+                    stagingCompression = Boolean.parseBoolean(props.getProperty(key));
+                    break;
+                case Constants.STAGING_PREFETCH_DEPTH:
+                    prefetchDepth = Integer.parseInt(props.getProperty(key));
+                    break;
             }
         }
-        final String user = commonUser;
-        final String password = commonPassword;
         masterLocalFolder = Paths.get(commandLine.getOptionValue(Constants.PARAM_MASTER_FOLDER));
         masterSharedFolder = Paths.get(commandLine.getOptionValue(Constants.PARAM_MASTER_SHARE));
         slaveMountFolder = Paths.get(commandLine.getOptionValue(Constants.PARAM_SHARE_MOUNT));
@@ -259,38 +420,17 @@ public class S2TbxRemoteExecutor {
         boolean useL1c = commandLine.hasOption(Constants.PARAM_USE_L1C);
         boolean useL2a = commandLine.hasOption(Constants.PARAM_USE_L2A);
         boolean lookForFolders = commandLine.hasOption(Constants.PARAM_INPUT_LOOKFOR_FOLDERS);
-        logger.info(String.format("Scanning %s", Constants.CONST_WINDOWS.equals(osSuffix) ?
-                masterSharedFolder.resolve(inputFolder) :
-                slaveMountFolder.resolve(inputFolder)));
-        List<Path> productFolders = Utilities.listFiles(
-                Constants.CONST_WINDOWS.equals(osSuffix) ?
-                        masterSharedFolder.resolve(inputFolder) :
-                        slaveMountFolder.resolve(inputFolder),
-                1);
-        List<Path> inputFiles = new ArrayList<>();
-        for (Path productFolder : productFolders) {
-            Optional<Path> inputFile = Optional.empty();
-            if (!lookForFolders) {
-                if (useL1c) {
-                    inputFile = Utilities.findFirst(productFolder, l1cMetadataPattern);
-                }
-                if (useL2a) {
-                    inputFile = Utilities.findFirst(productFolder, l2aMetadataPattern);
-                }
-            } else {
-                if (useL1c && l1cFolderPattern.matcher(productFolder.toAbsolutePath().toString()).matches()) {
-                    inputFile = Optional.of(productFolder);
-                }
-                if (useL2a && l2aFolderPattern.matcher(productFolder.toAbsolutePath().toString()).matches()) {
-                    inputFile = Optional.of(productFolder);
-                }
-            }
-            if (inputFile.isPresent() && Files.exists(inputFile.get())) {
-                logger.info("Found candidate input " + inputFile.get().toString());
-                inputFiles.add(resolve(inputFolder, osSuffix).relativize(inputFile.get().toAbsolutePath()));
-            }
+        List<Pattern> folderPatterns = new ArrayList<>();
+        List<Pattern> metadataPatterns = new ArrayList<>();
+        if (useL1c) {
+            folderPatterns.add(l1cFolderPattern);
+            metadataPatterns.add(l1cMetadataPattern);
         }
-        logger.info(String.format("%s products found", inputFiles.size()));
+        if (useL2a) {
+            folderPatterns.add(l2aFolderPattern);
+            metadataPatterns.add(l2aMetadataPattern);
+        }
+        ProductScanner scanner = new ProductScanner(folderPatterns, metadataPatterns, metadataGlob, lookForFolders);
         String slaveOperatorsString = commandLine.getOptionValue(Constants.PARAM_SLAVE_OPERATORS);
         String[] slaveOperators = slaveOperatorsString.split("\\|");
         GraphDescriptor slaveGraph = new GraphDescriptor();
@@ -326,14 +466,55 @@ public class S2TbxRemoteExecutor {
 
         String nodeString = commandLine.getOptionValue(Constants.PARAM_SLAVES);
         String[] tokens = nodeString.split(",");
+        Map<String, Integer> nodeSlots = new HashMap<>();
         for (String node : tokens) {
-            nodes.put(node.substring(0, node.indexOf(":")), node.substring(node.indexOf(":") + 1));
+            String[] parts = node.trim().split(":");
+            nodes.put(parts[0], parts[1]);
+            if (parts.length > 2) {
+                nodeSlots.put(parts[0], Integer.parseInt(parts[2]));
+            }
+        }
+        boolean resumeMaster = commandLine.hasOption(Constants.PARAM_RESUME_MASTER);
+        boolean staging = commandLine.hasOption(Constants.PARAM_STAGING);
+        if (staging) {
+            SSHSessionPool.getInstance().setCompression(stagingCompression);
+        }
+        /*
+         * Probe the slaves for their capacity. Unless given explicitly, the number of slots of a node
+         * is derived from its core count.
+         */
+        NodeProber prober = new NodeProber(commonUser, commonPassword, scratchFolder);
+        Map<String, NodeStatus> nodeStatuses = new HashMap<>();
+        if (!resumeMaster) {
+            SSHSessionPool.getInstance().preconnect(nodes.keySet().stream().filter(n -> !Node.isLocal(n)).collect(Collectors.toList()),
+                                                    commonUser, commonPassword);
+            nodeStatuses.putAll(prober.probe(nodes));
+        }
+        String slotsValue = commandLine.getOptionValue(Constants.PARAM_SLOTS_PER_NODE);
+        List<Node> nodeList = new ArrayList<>();
+        for (Map.Entry<String, String> node : nodes.entrySet()) {
+            NodeStatus status = nodeStatuses.get(node.getKey());
+            int slots;
+            if (nodeSlots.containsKey(node.getKey())) {
+                slots = nodeSlots.get(node.getKey());
+            } else if (slotsValue != null) {
+                slots = Integer.parseInt(slotsValue);
+            } else if (status != null) {
+                slots = Math.max(1, status.getCores() / Math.max(1, coresPerSlot));
+            } else {
+                slots = Constants.DEFAULT_SLOTS_PER_NODE;
+            }
+            Node slave = new Node(node.getKey(), node.getValue(), slots);
+            if (slave.isLocal()) {
+                slave.setJobLimits(localSlotThreads, localSlotMemory);
+            }
+            if (status != null) {
+                slave.setStatus(status, Constants.MIN_FREE_MEMORY, Constants.MIN_FREE_DISK);
+                logger.info("[[%s]] %s. Usable slots: %s of %s, job options: %s",
+                            slave.getName(), status, slave.getActiveSlots(), slots, gptTuning(slave));
+            }
+            nodeList.add(slave);
         }
-
-        int nodeIndex = 0;
-        Map<String, List<String>> jobArguments = new HashMap<>();
-        List<String> outFiles = new ArrayList<>();
-        List<String> nodeNames = new ArrayList<>(nodes.keySet());
         /*
          * Check that the shared folder is mount on slaves
          */
@@ -348,82 +529,291 @@ public class S2TbxRemoteExecutor {
             logger.warn("Operation timed out");
         }*/
         /*
-         * Create job arguments for slaves
+         * Prepare the slave graph. It is written only once, the product being bound
+         * to the source variable on the gpt command line of each job.
          */
-
-        int counter = 0;
+        if (shouldInsertReadOp(slaveGraph)) {
+            slaveGraph.insertNode(0, "Read", null);
+        }
         GraphNode firstNode = slaveGraph.getNode(0);
-        boolean isSen2CorOrThree = "Sen2Cor".equals(firstNode.getOperator()) ||
+        if ("Read".equals(firstNode.getOperator())) {
+            firstNode.setArgument("file", GraphTemplate.variable(Constants.GRAPH_VAR_SOURCE));
+        } else if ("Sen2Cor".equals(firstNode.getOperator())) {
+            firstNode.setArgument("sourceFolder", GraphTemplate.variable(Constants.GRAPH_VAR_SOURCE));
+        }
+        boolean isSlaveSen2CorOrThree = "Sen2Cor".equals(firstNode.getOperator()) ||
                 "Sen2Three".equals(masterGraph.getNode(0).getOperator());
-        for (Path inputFile : inputFiles) {
-            try {
-                counter++;
-                String node = nodeNames.get(nodeIndex);
-                String nodeOS = nodes.get(node);
-                String outFile = resolve(outputFolder, nodeOS).resolve("result_" + String.valueOf(counter) + ".tif").toString();
-                String transformedCmdLine = templates.get(nodeOS).slaveExecCommand;
-                if (isSen2CorOrThree) {
+        /*
+         * The slave results are written as compressed, tiled BigTIFFs, holding only the bands needed by the master
+         */
+        IntermediateFormat slaveFormat = null;
+        if (!isSlaveSen2CorOrThree) {
+            slaveFormat = IntermediateFormat.forMaster(masterGraph);
+            slaveFormat.setCompression(outputCompression);
+            slaveFormat.setBands(outputBands);
+            if (outputTileSize > 0) {
+                slaveFormat.setTileSize(outputTileSize);
+            }
+            slaveFormat.apply(slaveGraph);
+            logger.info(String.format("Slave results: %s", slaveFormat));
+        }
+        final String formatOptions = slaveFormat != null ? " " + slaveFormat.toGptOptions() : "";
+        // a change of the slave operators or of the result format invalidates the journaled results
+        final String jobSettings = slaveFormat != null ? slaveOperatorsString + "|" + slaveFormat : slaveOperatorsString;
+        GraphTemplate slaveTemplate = GraphTemplate.compile(slaveGraph);
+        int slotCount = nodeList.stream().mapToInt(Node::getSlots).sum();
+        /*
+         * When slaves are to be executed, products are handed to them as soon as they are found.
+         * The queue is bounded so that the scan doesn't get too far ahead of the slaves.
+         */
+        Map<Integer, GraphTemplate> batchTemplates = new ConcurrentHashMap<>();
+        Path scanFolder = resolve(inputFolder, osSuffix);
+        ResultResolver resultResolver = resultName -> masterLocalFolder.resolve(outputFolder).resolve(resultName + ".tif");
+        /*
+         * When staging, the Linux slaves read their inputs from and write their results to their scratch folder,
+         * the inputs and results being copied over SFTP. The graphs are copied once to each slave.
+         * In the scratch output mode, they only write their results to their scratch folder, the results being
+         * then copied to the shared output folder.
+         */
+        Stager stager = null;
+        boolean scratchOutput = Constants.OUTPUT_MODE_SCRATCH.equalsIgnoreCase(outputMode);
+        if ((staging || scratchOutput) && isSlaveSen2CorOrThree) {
+            logger.warn("Staging is not supported for the Sen2Cor and Sen2Three graphs. The shared folder will be used");
+        } else if (staging) {
+            stager = new SFTPStager(scanFolder, resultResolver, scratchFolder, commonUser, commonPassword, stagingStreams);
+        } else if (scratchOutput) {
+            stager = new ScratchOutputStager(normalizePath(slaveMountFolder, Constants.CONST_LINUX),
+                                             normalizePath(resolve(inputFolder, Constants.CONST_LINUX), Constants.CONST_LINUX),
+                                             normalizePath(resolve(outputFolder, Constants.CONST_LINUX), Constants.CONST_LINUX),
+                                             scratchFolder, commonUser, commonPassword);
+        }
+        final Stager slaveStager = stager;
+        JobDispatcher dispatcher = new JobDispatcher(nodeList, (jobs, node, attempt) -> {
+            String nodeOS = node.getOs();
+            String gptCommand = templates.get(nodeOS).slaveGptCommand;
+            String gptTuning = gptTuning(node) + formatOptions;
+            boolean staged = slaveStager != null && slaveStager.isStaged(node);
+            String transformedCmdLine;
+            if (jobs.size() == 1) {
+                Job job = jobs.get(0);
+                String outFile = resolve(outputFolder, nodeOS).resolve(job.getResultName(attempt) + ".tif").toString();
+                transformedCmdLine = templates.get(nodeOS).slaveExecCommand;
+                if (isSlaveSen2CorOrThree) {
                     transformedCmdLine = transformedCmdLine.replace(Constants.SLAVE_CMD_OUTPUT_SECTION, "");
                 }
-                transformedCmdLine= String.format(transformedCmdLine
-                                .replace(Constants.PLACEHOLDER_GPT, templates.get(nodeOS).slaveGptCommand)
-                                .replace(Constants.PLACEHOLDER_SHARED_FOLDER, normalizePath(slaveMountFolder, nodeOS))
+                String productPath = normalizePath(resolve(inputFolder, nodeOS).resolve(job.getInput()), nodeOS);
+                String graphFolder = normalizePath(slaveMountFolder, nodeOS);
+                String outFolder = normalizePath(resolve(outputFolder, nodeOS), nodeOS);
+                if (staged) {
+                    String graph = slaveStager.stageFile(node, masterLocalFolder.resolve(Constants.SLAVE_GRAPH_FILE_NAME));
+                    graphFolder = graph.substring(0, graph.lastIndexOf('/'));
+                    outFile = slaveStager.getRemoteResult(job, attempt);
+                    outFolder = outFile.substring(0, outFile.lastIndexOf('/'));
+                    productPath = slaveStager.getRemoteInput(job, attempt);
+                }
+                transformedCmdLine = String.format(transformedCmdLine
+                                .replace(Constants.PLACEHOLDER_GPT, gptCommand)
+                                .replace(Constants.PLACEHOLDER_GPT_TUNING, gptTuning)
+                                .replace(Constants.PLACEHOLDER_SHARED_FOLDER, graphFolder)
                                 .replace(Constants.PLACEHOLDER_INPUT_FILE, outFile)
                                 .replace(Constants.PLACEHOLDER_INPUT_FOLDER, normalizePath(resolve(inputFolder, nodeOS), nodeOS))
-                                .replace(Constants.PLACEHOLDER_OUTPUT_FOLDER, normalizePath(resolve(outputFolder, nodeOS), nodeOS)),
-                        String.valueOf(counter),
-                        normalizePath(inputFile, nodeOS),
-                        "result_" + String.valueOf(counter));
-                if (shouldInsertReadOp(slaveGraph)) {
-                    slaveGraph.insertNode(0, "Read", "\"-Pfile=" + normalizePath(resolve(inputFolder, nodeOS).resolve(inputFile), nodeOS) + "\"");
-                } else {
-                    if ("Read".equals(firstNode.getOperator())) {
-                        firstNode.setArgument("file", normalizePath(resolve(inputFolder, nodeOS).resolve(inputFile), nodeOS));
-                    } else if ("Sen2Cor".equals(firstNode.getOperator())) {
-                        firstNode.setArgument("sourceFolder", normalizePath(resolve(inputFolder, nodeOS).resolve(inputFile), nodeOS));
+                                .replace(Constants.PLACEHOLDER_OUTPUT_FOLDER, outFolder),
+                        job.getResultName(attempt))
+                        .replace(Constants.PLACEHOLDER_GRAPH_PARAMS,
+                                 slaveTemplate.bind(Collections.singletonMap(Constants.GRAPH_VAR_SOURCE, productPath),
+                                                    Constants.CONST_WINDOWS.equals(nodeOS)));
+            } else {
+                /*
+                 * A batch is executed by a graph made of one Read->ops->Write branch per product.
+                 * Such a graph is written once for each batch size.
+                 */
+                String graphName = String.format(Constants.SLAVE_BATCH_GRAPH_FILE_NAME, jobs.size());
+                GraphTemplate batchTemplate = batchTemplates.computeIfAbsent(jobs.size(), size -> {
+                    GraphTemplate template = GraphTemplate.compile(slaveGraph.replicate(size, Constants.SLAVE_OUTPUT_FORMAT,
+                                                                                       Constants.GRAPH_VAR_TARGET));
+                    try {
+                        template.write(masterLocalFolder.resolve(graphName));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                    return template;
+                });
+                Map<String, String> values = new HashMap<>();
+                for (int i = 0; i < jobs.size(); i++) {
+                    Job job = jobs.get(i);
+                    values.put(Constants.GRAPH_VAR_SOURCE + "_" + String.valueOf(i + 1), staged ?
+                            slaveStager.getRemoteInput(job, attempt) :
+                            normalizePath(resolve(inputFolder, nodeOS).resolve(job.getInput()), nodeOS));
+                    values.put(Constants.GRAPH_VAR_TARGET + "_" + String.valueOf(i + 1), staged ?
+                            slaveStager.getRemoteResult(job, attempt) :
+                            normalizePath(resolve(outputFolder, nodeOS).resolve(job.getResultName(attempt) + ".tif"), nodeOS));
+                }
+                String graphFolder = normalizePath(slaveMountFolder, nodeOS);
+                if (staged) {
+                    String graph = slaveStager.stageFile(node, masterLocalFolder.resolve(graphName));
+                    graphFolder = graph.substring(0, graph.lastIndexOf('/'));
                 }
-                Files.write(masterLocalFolder.resolve("slaveGraph" + String.valueOf(counter) + ".xml"), slaveGraph.toString().getBytes());
-                String finalTransformedCmdLine = transformedCmdLine;
-                jobArguments.put(node, new ArrayList<String>() {{
-                    add(finalTransformedCmdLine);
-                }});
-                outFiles.add(outFile);
-                nodeIndex = (nodeIndex == nodes.size() - 1) ? 0 : nodeIndex + 1;
-            } catch (Exception e) {
-                logger.error(e.getMessage());
+                transformedCmdLine = String.format(templates.get(nodeOS).slaveBatchCommand
+                                .replace(Constants.PLACEHOLDER_GPT, gptCommand)
+                                .replace(Constants.PLACEHOLDER_GPT_TUNING, gptTuning)
+                                .replace(Constants.PLACEHOLDER_SHARED_FOLDER, graphFolder),
+                        graphName)
+                        .replace(Constants.PLACEHOLDER_GRAPH_PARAMS,
+                                 batchTemplate.bind(values, Constants.CONST_WINDOWS.equals(nodeOS)));
             }
+            List<String> jobArguments = new ArrayList<>();
+            jobArguments.add(transformedCmdLine);
+            return jobArguments;
+        },
+                resumeMaster ? Integer.MAX_VALUE : slotCount * Constants.QUEUED_JOBS_PER_SLOT);
+        dispatcher.setUser(commonUser);
+        dispatcher.setPassword(commonPassword);
+        dispatcher.setJobTimeout(waitTimeout, TimeUnit.MINUTES);
+        if (commandLine.hasOption(Constants.PARAM_SPECULATION)) {
+            String factor = commandLine.getOptionValue(Constants.PARAM_SPECULATION);
+            dispatcher.setSpeculationFactor(factor != null ? Double.parseDouble(factor) : Constants.DEFAULT_SPECULATION_FACTOR);
+        }
+        if (commandLine.hasOption(Constants.PARAM_STALL)) {
+            String stallTimeout = commandLine.getOptionValue(Constants.PARAM_STALL);
+            dispatcher.setStallTimeout(stallTimeout != null ? Long.parseLong(stallTimeout) : Constants.DEFAULT_STALL_TIMEOUT,
+                                       TimeUnit.MINUTES);
+        }
+        dispatcher.setProber(prober);
+        if (stager != null) {
+            dispatcher.setStager(stager);
+            if (staging) {
+                dispatcher.setPrefetchDepth(prefetchDepth);
+            }
+        }
+        if (commandLine.hasOption(Constants.PARAM_AGENT)) {
+            String port = commandLine.getOptionValue(Constants.PARAM_AGENT);
+            int agentPort = port != null ? Integer.parseInt(port) : Constants.DEFAULT_AGENT_PORT;
+            dispatcher.useAgents(agentPort, agentToken);
+            if (!resumeMaster) {
+                startLocalAgent(nodeList, agentPort, agentToken);
+            }
+        }
+        if (commandLine.hasOption(Constants.PARAM_BATCH) && !isSlaveSen2CorOrThree) {
+            String batchSize = commandLine.getOptionValue(Constants.PARAM_BATCH);
+            dispatcher.setBatching(batchSize != null ? Integer.parseInt(batchSize) : Constants.DEFAULT_MAX_BATCH_SIZE, batchMemory);
+        }
+        RunMetrics metrics = new RunMetrics(slaveGraph.getOperatorChain(), masterGraph.getOperatorChain(),
+                                            masterLocalFolder.resolve(Constants.METRICS_FILE_NAME));
+        if (prometheusFile != null && !prometheusFile.isEmpty()) {
+            metrics.setPrometheusFile(Paths.get(prometheusFile));
+        }
+        metrics.start(metricsInterval);
+        if (!resumeMaster) {
+            dispatcher.setMetrics(metrics);
+            dispatcher.setLogFolder(folder.resolveSibling(Constants.JOB_LOG_FOLDER));
+            slaveTemplate.write(masterLocalFolder.resolve(Constants.SLAVE_GRAPH_FILE_NAME));
+            Utilities.ensureExists(masterLocalFolder.resolve(outputFolder));
+            slaveExecutorService = Executors.newFixedThreadPool(slotCount, Utilities.newThreadFactory("slave"));
+            dispatcher.start(slaveExecutorService);
+            logger.info(String.format("Dispatching jobs on %s slots", slotCount));
         }
-
         /*
-         * Execute the jobs on slaves
+         * Scan for products and feed the dispatcher
          */
-        if (!commandLine.hasOption(Constants.PARAM_RESUME_MASTER)) {
-            Set<Executor> processes = new HashSet<>();
-            sharedCounter = new CountDownLatch(jobArguments.size());
-            for (Map.Entry<String, List<String>> entry : jobArguments.entrySet()) {
-                Executor sshExecutor = Executor.create(ExecutorType.SSH2, entry.getKey(), entry.getValue(), sharedCounter);
-                sshExecutor.setUser(commonUser);
-                sshExecutor.setPassword(commonPassword);
-                executorService.submit(sshExecutor);
-                processes.add(sshExecutor);
+        JobJournal journal = new JobJournal(masterLocalFolder.resolve(Constants.JOURNAL_FILE_NAME));
+        // the Sen2Cor slaves produce no result file in the output folder
+        if (!isSlaveSen2CorOrThree) {
+            journal.setResultResolver(resultResolver);
+            dispatcher.setResultResolver(resultResolver);
+        }
+        if (!resumeMaster) {
+            dispatcher.addListener(journal);
+        }
+        List<String> previousResults = Collections.synchronizedList(new ArrayList<>());
+        Consumer<Path> productConsumer = inputFile -> {
+            logger.info("Found candidate input " + inputFile.toString());
+            Path product = scanFolder.relativize(inputFile.toAbsolutePath());
+            String fingerprint = null;
+            try {
+                fingerprint = JobJournal.fingerprint(inputFile, jobSettings);
+            } catch (IOException e) {
+                logger.warn("Cannot compute the fingerprint of %s: %s", inputFile, e.getMessage());
             }
+            JobJournal.Entry entry = journal.get(product);
+            if (!resumeMaster && fingerprint != null && journal.isDone(product, fingerprint)) {
+                logger.info("Product %s already processed", product);
+                String result = entry.getResult();
+                if (!result.isEmpty()) {
+                    previousResults.add(result);
+                }
+            } else if (resumeMaster && entry != null && entry.getState() == JobState.DONE && !entry.getResult().isEmpty()) {
+                // the result may come from a backup copy or a retry, hence it is not named after the first attempt
+                previousResults.add(entry.getResult());
+            } else {
+                dispatcher.submit(product, fingerprint);
+            }
+        };
+        if (commandLine.hasOption(Constants.PARAM_WATCH) && !resumeMaster) {
+            /*
+             * In watch mode, the products are dispatched as they arrive, until the process is terminated.
+             * The master job is not executed.
+             */
+            String interval = commandLine.getOptionValue(Constants.PARAM_WATCH);
+            ProductWatcher watcher = new ProductWatcher(scanFolder, scanner,
+                    interval != null ? Long.parseLong(interval) : Constants.DEFAULT_WATCH_POLL_INTERVAL,
+                    Constants.DEFAULT_WATCH_QUIET_PERIOD);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                watcher.stop();
+                dispatcher.stop();
+                metrics.stop();
+                SSHSessionPool.getInstance().close();
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    logger.warn("Cannot close the journal: %s", e.getMessage());
+                }
+            }));
+            watcher.watch(productConsumer);
+            return;
+        }
+        logger.info(String.format("Scanning %s", scanFolder));
+        scanner.scan(scanFolder, productConsumer);
+        dispatcher.close();
+        int productCount = dispatcher.getJobs().size();
+        logger.info(String.format("%s products found, %s to be processed", productCount + previousResults.size(), productCount));
+
+        /*
+         * Wait for the jobs on slaves
+         */
+        if (!resumeMaster) {
+            int rounds = (productCount + slotCount - 1) / slotCount;
             try {
-                sharedCounter.await(waitTimeout, TimeUnit.MINUTES);
+                if (!dispatcher.awaitCompletion((long) waitTimeout * Math.max(1, rounds), TimeUnit.MINUTES)) {
+                    logger.warn("Operation timed out");
+                }
             } catch (InterruptedException e) {
                 logger.warn("Operation timed out");
             }
-            processes.stream()
-                     .filter(executor -> !executor.hasCompleted())
-                     .forEach(executor ->
-                             logger.warn("[[" + executor.getHost() + "]] Node still running. Its output will not be complete."));
-            processes.clear();
+            dispatcher.getJobs().stream()
+                    .filter(job -> !job.hasCompleted())
+                    .forEach(job -> logger.warn("Job " + job + (job.getNode() != null ?
+                            " still running on [[" + job.getNode() + "]]" : " not started") + ". Its output will not be available."));
+            dispatcher.stop();
+        }
+        List<String> outFiles = new ArrayList<>(previousResults);
+        outFiles.addAll(dispatcher.getJobs().stream()
+                .filter(job -> resumeMaster || job.getState() == JobState.DONE)
+                .map(job -> masterLocalFolder.resolve(outputFolder).resolve(job.getResultName() + ".tif").toString())
+                .collect(Collectors.toList()));
+        journal.close();
+        long unfinished = dispatcher.getJobs().stream().filter(job -> job.getState() != JobState.DONE).count();
+        if (!resumeMaster && unfinished > 0) {
+            logger.warn(String.format("%s products were not processed. The master job will be executed when all the products " +
+                                      "are processed; run again with the same arguments to process only these products", unfinished));
+            metrics.stop();
+            shutdown();
+            System.exit(1);
         }
         /*
          * Execute the master job
          */
         boolean isMosaic = "Mosaic".equals(masterGraph.getNode(0).getOperator());
-        isSen2CorOrThree = "Sen2Cor".equals(masterGraph.getNode(0).getOperator()) ||
+        boolean isSen2CorOrThree = "Sen2Cor".equals(masterGraph.getNode(0).getOperator()) ||
                                 "Sen2Three".equals(masterGraph.getNode(0).getOperator());
         if (isMosaic) {
             Files.write(masterLocalFolder.resolve("masterGraph.xml"), masterGraph.getNode(0).parametersToString().getBytes());
@@ -433,14 +823,26 @@ public class S2TbxRemoteExecutor {
             }
             Files.write(masterLocalFolder.resolve("masterGraph.xml"), masterGraph.toString().getBytes());
         }
-        if (outFiles.size() > 0) {
-            outFiles = outFiles.stream()
-                    .map(name -> masterLocalFolder.resolve(slaveMountFolder.relativize(Paths.get(name))).toString())
-                    .collect(Collectors.toList());
-            outFiles.forEach(f -> ensurePermissions(osSuffix, f, user, password));
-        } else {
-            ensurePermissions(osSuffix, masterLocalFolder, user, password);
+        /*
+         * The master inputs are checked and made readable to everyone locally, in parallel, before the master job starts.
+         * The slave results must all exist only if the master reads them (the Sen2Cor slaves don't write any).
+         */
+        boolean readsResults = !isSen2CorOrThree && !outFiles.isEmpty() &&
+                templates.get(osSuffix).masterExecCommand.contains(Constants.PLACEHOLDER_MASTER_INPUT);
+        long permissionStart = System.currentTimeMillis();
+        List<Path> missingResults = Utilities.ensurePermissions(readsResults ?
+                outFiles.stream().map(Paths::get).collect(Collectors.toList()) :
+                Collections.singletonList(masterLocalFolder), Constants.MASTER_INPUT_PERMISSIONS);
+        if (readsResults && !missingResults.isEmpty()) {
+            missingResults.forEach(result -> logger.warn(String.format("Result %s not found", result)));
+            logger.warn(String.format("%s results are missing. Run again with the same arguments to process their products again",
+                                      missingResults.size()));
+            metrics.stop();
+            shutdown();
+            System.exit(1);
         }
+        logger.info(String.format("Permissions of %s master inputs checked in %sms",
+                                  readsResults ? outFiles.size() : 1, System.currentTimeMillis() - permissionStart));
         String masterCmdLine = templates.get(osSuffix).masterExecCommand;
         if (isSen2CorOrThree) {
             masterCmdLine = masterCmdLine.replace(Constants.MASTER_CMD_OUTPUT_SECTION, "");
@@ -451,12 +853,15 @@ public class S2TbxRemoteExecutor {
                                      .replace(Constants.PLACEHOLDER_MASTER_INPUT, !isSen2CorOrThree ? String.join(" ", outFiles) : "")
                                      .replace(Constants.PLACEHOLDER_OUTPUT_FOLDER, !isSen2CorOrThree ? normalizePath(resolve(outputFolder, osSuffix), osSuffix) : "");
         sharedCounter = new CountDownLatch(1);
-        executorService.submit(Executor.create(ExecutorType.PROCESS, "master", Arrays.asList(masterCmdLine.split(" ")), sharedCounter));
+        long masterStart = System.currentTimeMillis();
+        masterExecutorService.submit(Executor.create(ExecutorType.PROCESS, "master", Arrays.asList(masterCmdLine.split(" ")), sharedCounter));
         try {
             sharedCounter.await(waitTimeout * outFiles.size(), TimeUnit.MINUTES);
         } catch (InterruptedException e) {
             logger.warn("Operation timed out");
         }
+        metrics.recordMaster(System.currentTimeMillis() - masterStart);
+        metrics.stop();
         /*
          * Do the cleanup on slaves
          */
@@ -470,30 +875,18 @@ public class S2TbxRemoteExecutor {
             logger.warn("Operation timed out");
         }*/
 
-        executorService.shutdown();
+        shutdown();
         System.exit(0);
     }
 
-    private static void ensurePermissions(String nodeType, Path path, String usr, String pwd) {
-        Executor executor = Executor.create(ExecutorType.SSH2,
-                "master",
-                new ArrayList<String>() {{
-                    add("chmod");
-                    if (Files.isDirectory(path)) {
-                        add("-R");
-                    }
-                    add("0777");
-                    add(normalizePath(path, nodeType));
-                }},
-                true,
-                null);
-        executor.setUser(usr);
-        executor.setPassword(pwd);
-        executorService.submit(executor);
-    }
-
-    private static void ensurePermissions(String nodeType, String path, String usr, String pwd) {
-        ensurePermissions(nodeType, Paths.get(path), usr, pwd);
+    private static void shutdown() throws InterruptedException {
+        if (slaveExecutorService != null) {
+            slaveExecutorService.shutdownNow();
+        }
+        masterExecutorService.shutdown();
+        adminExecutorService.shutdown();
+        adminExecutorService.awaitTermination(1, TimeUnit.MINUTES);
+        SSHSessionPool.getInstance().close();
     }
 
     private static void checkPrerequisites(String nodeName, String nodeType, String usr, String pwd, CountDownLatch sharedCounter) {
@@ -517,7 +910,7 @@ public class S2TbxRemoteExecutor {
                 sharedCounter);
         executor.setUser(usr);
         executor.setPassword(pwd);
-        executorService.submit(executor);
+        adminExecutorService.submit(executor);
     }
 
     private static void cleanup(String nodeName, String nodeType, String usr, String pwd, CountDownLatch sharedCounter) {
@@ -534,7 +927,7 @@ public class S2TbxRemoteExecutor {
                 sharedCounter);
         executor.setUser(usr);
         executor.setPassword(pwd);
-        executorService.submit(executor);
+        adminExecutorService.submit(executor);
     }
 
     private static Set<String> extractOperatorNames(List<String> lines) {
@@ -583,6 +976,36 @@ public class S2TbxRemoteExecutor {
         }
     }
 
+    /**
+     * Starts an agent in this process for the localhost slave, if any, unless an agent already listens on the port.
+     */
+    private static void startLocalAgent(List<Node> nodes, int port, String token) throws IOException {
+        Optional<Node> local = nodes.stream().filter(Node::isLocal).findFirst();
+        if (local.isPresent()) {
+            try {
+                AgentServer agent = new AgentServer(InetAddress.getLoopbackAddress(), port, token, local.get().getSlots());
+                agent.start();
+            } catch (BindException e) {
+                Logger.getRootLogger().info("An agent is already listening on port %s", port);
+            }
+        }
+    }
+
+    /**
+     * Returns the gpt options setting the parallelism, tile cache and heap of a job executed on the given node.
+     */
+    private static String gptTuning(Node node) {
+        StringBuilder builder = new StringBuilder();
+        if (node.getJobThreads() > 0) {
+            builder.append("-q ").append(node.getJobThreads());
+        }
+        if (node.getJobHeap() > 0) {
+            builder.append(" -c ").append(node.getTileCache()).append("M")
+                   .append(" -J-Xmx").append(node.getJobHeap()).append("m");
+        }
+        return builder.toString().trim();
+    }
+
     private static boolean shouldInsertReadOp(GraphDescriptor graph) {
         String operator = graph.getNode(0).getOperator();
         return !("Read".equals(operator) || "Sen2Cor".equals(operator));
@@ -593,5 +1016,6 @@ public class S2TbxRemoteExecutor {
         String masterExecCommand;
         String slaveGptCommand;
         String slaveExecCommand;
+        String slaveBatchCommand;
     }
 }
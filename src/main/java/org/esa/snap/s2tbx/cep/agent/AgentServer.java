@@ -0,0 +1,177 @@
+package org.esa.snap.s2tbx.cep.agent;
+
+import org.esa.snap.s2tbx.cep.Constants;
+import org.esa.snap.s2tbx.cep.executors.LocalExecutor;
+import org.esa.snap.s2tbx.cep.util.Logger;
+import org.esa.snap.s2tbx.cep.util.Utilities;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Agent resident on a slave node, executing the jobs received from the master over TCP.
+ * This avoids the set-up of an SSH channel (and of its remote shell) for every job.
+ * <p>
+ * The protocol is line based (UTF-8). The master sends the agent token and the command line of the job,
+ * each on its own line. The agent sends back the output of the job, line by line, and finally
+ * the {@link #EXIT_MARKER} followed by the exit code of the job. If the master closes the connection
+ * before the end of the job, the job is killed. The progress percentages of the job are also sent, as soon as
+ * they are printed, each on its own line, after the {@link #PROGRESS_MARKER}.
+ * </p>
+ * At most <code>workers</code> jobs are executed concurrently, the other connections waiting for a free worker.
+ *
+ * @author Cosmin Cara
+ */
+public class AgentServer implements AutoCloseable {
+
+    public static final String EXIT_MARKER = "@@EXIT@@";
+    public static final String PROGRESS_MARKER = "@@PROGRESS@@";
+    public static final String TOKEN_VARIABLE = "S2TBX_AGENT_TOKEN";
+    private static final int HANDSHAKE_TIMEOUT = 30000;
+
+    private final ServerSocket serverSocket;
+    private final byte[] token;
+    private final ExecutorService workers;
+    private final Logger.CustomLogger logger;
+    private volatile boolean closed;
+
+    /**
+     * Creates an agent listening on the given address and port.
+     *
+     * @param bindAddress   The address to listen on (<code>null</code> for all the addresses)
+     * @param port          The port (0 for an ephemeral port)
+     * @param token         The token expected from the master
+     * @param workers       The maximum number of concurrent jobs
+     *
+     * @throws IOException
+     */
+    public AgentServer(InetAddress bindAddress, int port, String token, int workers) throws IOException {
+        if ((token == null || token.isEmpty()) && (bindAddress == null || !bindAddress.isLoopbackAddress())) {
+            throw new IllegalArgumentException("A token is required when the agent is not bound to the loopback address");
+        }
+        this.serverSocket = new ServerSocket(port, 50, bindAddress);
+        this.token = (token != null ? token : "").getBytes(StandardCharsets.UTF_8);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers), Utilities.newThreadFactory("agent-worker"));
+        this.logger = Logger.getRootLogger();
+    }
+
+    public int getPort() { return this.serverSocket.getLocalPort(); }
+
+    /**
+     * Starts accepting connections, on a separate thread.
+     */
+    public void start() {
+        Thread acceptor = Utilities.newThreadFactory("agent").newThread(this::accept);
+        acceptor.start();
+        logger.info("Agent listening on %s", this.serverSocket.getLocalSocketAddress());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.serverSocket.close();
+        this.workers.shutdownNow();
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.workers.submit(() -> handle(socket));
+            } catch (IOException e) {
+                if (!this.closed) {
+                    logger.error("Agent cannot accept connections: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket client = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))) {
+            client.setSoTimeout(HANDSHAKE_TIMEOUT);
+            String receivedToken = reader.readLine();
+            String cmdLine = reader.readLine();
+            if (receivedToken == null || cmdLine == null ||
+                    !MessageDigest.isEqual(this.token, receivedToken.getBytes(StandardCharsets.UTF_8))) {
+                logger.warn("Agent rejected a connection from %s", client.getRemoteSocketAddress());
+                return;
+            }
+            client.setSoTimeout(0);
+            LocalExecutor executor = new LocalExecutor(client.getRemoteSocketAddress().toString(),
+                                                       Collections.singletonList(cmdLine), false, null) {
+                @Override
+                protected boolean accept(String line) {
+                    if (super.accept(line)) {
+                        try {
+                            writer.write(line + "\n");
+                            writer.flush();
+                        } catch (IOException e) {
+                            stop();
+                        }
+                    }
+                    return false;
+                }
+            };
+            executor.setProgressListener(percent -> {
+                try {
+                    writer.write(PROGRESS_MARKER + String.valueOf(percent) + "\n");
+                    writer.flush();
+                } catch (IOException e) {
+                    executor.stop();
+                }
+            });
+            // the master closes the connection to stop the job
+            Thread watcher = Utilities.newThreadFactory("agent-watch").newThread(() -> {
+                try {
+                    while (reader.read() != -1) { }
+                } catch (IOException ignored) {
+                }
+                if (!executor.hasCompleted()) {
+                    logger.warn("[[%s]] Connection closed, stopping the job", client.getRemoteSocketAddress());
+                    executor.stop();
+                }
+            });
+            watcher.start();
+            executor.run();
+            if (!executor.isStopped()) {
+                writer.write(EXIT_MARKER + String.valueOf(executor.getReturnCode()) + "\n");
+                writer.flush();
+            }
+        } catch (SocketException e) {
+            logger.warn("Agent connection lost: %s", e.getMessage());
+        } catch (IOException e) {
+            logger.error("Agent job failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the agent until the process is terminated.
+     * Usage: <code>AgentServer [port] [workers]</code>. The token is read from the
+     * <code>S2TBX_AGENT_TOKEN</code> environment variable. Without token, the agent listens only on the loopback address.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Constants.DEFAULT_AGENT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String token = System.getenv(TOKEN_VARIABLE);
+        InetAddress bindAddress = token == null || token.isEmpty() ? InetAddress.getLoopbackAddress() : null;
+        AgentServer server = new AgentServer(bindAddress, port, token, workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }));
+        server.start();
+        Thread.currentThread().join();
+    }
+}
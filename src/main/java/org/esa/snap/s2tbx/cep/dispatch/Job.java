@@ -0,0 +1,104 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import java.nio.file.Path;
+
+/**
+ * A unit of slave work, i.e. the processing of a single input product.
+ *
+ * @author Cosmin Cara
+ */
+public class Job {
+
+    private final int id;
+    private final Path input;
+    private final String fingerprint;
+    private final long submitted;
+    private volatile JobState state;
+    private volatile String node;
+    private volatile int returnCode = Integer.MAX_VALUE;
+    private volatile int attempt;
+    private volatile int progress;
+
+    Job(int id, Path input, String fingerprint) {
+        this.id = id;
+        this.input = input;
+        this.fingerprint = fingerprint;
+        this.submitted = System.currentTimeMillis();
+        this.state = JobState.QUEUED;
+    }
+
+    public int getId() { return this.id; }
+
+    /**
+     * Returns the input product, relative to the input folder.
+     */
+    public Path getInput() { return this.input; }
+
+    /**
+     * Returns the fingerprint of the input and of the processing graph, or <code>null</code> if not computed.
+     */
+    public String getFingerprint() { return this.fingerprint; }
+
+    /**
+     * Returns the time (in milliseconds since the epoch) when the job was submitted.
+     */
+    public long getSubmitted() { return this.submitted; }
+
+    /**
+     * Returns the name (without extension) of the product produced by this job, i.e. by its successful attempt.
+     * The name is derived from the name of the input product, so that it is the same from one run to another.
+     */
+    public String getResultName() {
+        return getResultName(this.attempt);
+    }
+
+    /**
+     * Returns the name (without extension) of the product produced by the given attempt of this job.
+     * The first attempt is 0, the following ones being speculative copies.
+     *
+     * @param attempt   The attempt number
+     */
+    public String getResultName(int attempt) {
+        String name = this.input.getName(0).toString();
+        int idx = name.lastIndexOf('.');
+        return "result_" + (idx > 0 ? name.substring(0, idx) : name) + (attempt > 0 ? "_" + String.valueOf(attempt) : "");
+    }
+
+    /**
+     * Returns the attempt whose result is retained.
+     */
+    public int getAttempt() { return this.attempt; }
+
+    void setAttempt(int attempt) { this.attempt = attempt; }
+
+    public JobState getState() { return this.state; }
+
+    void setState(JobState state) { this.state = state; }
+
+    /**
+     * Returns the node on which the job was executed, or <code>null</code> if not yet assigned.
+     */
+    public String getNode() { return this.node; }
+
+    void setNode(String node) { this.node = node; }
+
+    /**
+     * Returns the progress (in percent) of the most advanced attempt of the job.
+     */
+    public int getProgress() { return this.progress; }
+
+    void setProgress(int progress) { this.progress = progress; }
+
+    public int getReturnCode() { return this.returnCode; }
+
+    void setReturnCode(int returnCode) { this.returnCode = returnCode; }
+
+    public boolean hasCompleted() {
+        return this.state == JobState.DONE || this.state == JobState.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + this.id + " [" + this.input + "]";
+    }
+}
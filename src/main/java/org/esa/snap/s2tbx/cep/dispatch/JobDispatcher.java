@@ -0,0 +1,1095 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.Constants;
+import org.esa.snap.s2tbx.cep.executors.AgentExecutor;
+import org.esa.snap.s2tbx.cep.executors.Executor;
+import org.esa.snap.s2tbx.cep.executors.ExecutorType;
+import org.esa.snap.s2tbx.cep.executors.SSHExecutor;
+import org.esa.snap.s2tbx.cep.executors.SimulatedExecutor;
+import org.esa.snap.s2tbx.cep.executors.SimulationProfile;
+import org.esa.snap.s2tbx.cep.util.Logger;
+import org.esa.snap.s2tbx.cep.util.Utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Pull-based dispatcher of slave jobs.
+ * Products are put in a shared queue, from which every slot of every slave node pulls
+ * a new job as soon as the previous one has completed.
+ * Running jobs are monitored: a job exceeding its deadline is stopped and, if speculation is enabled,
+ * a job running much longer than the median job duration gets a backup copy on another node while
+ * slots are idle. The first copy that succeeds wins, the other one is stopped and its output discarded.
+ * When a {@link NodeProber} is set, the nodes are probed periodically and a node pulls new jobs only while
+ * its load allows it, so that big nodes get proportionally more jobs than small or overloaded ones.
+ * When batching is enabled, a slot pulls several jobs at once and executes them in a single process.
+ * If such a batch fails, its jobs are executed again one by one, so that each product gets its own outcome.
+ * The progress printed by the jobs is tracked and the overall progress and ETA are logged periodically.
+ * When a stall timeout is set, a job whose progress does not advance during that time is stopped and rescheduled.
+ * When {@link RunMetrics} are set, the time spent by each job in every phase is recorded.
+ * When a log folder is set, the output of each attempt goes to its own file, the main log keeping only summaries.
+ * When a {@link Stager} is set, the inputs of the staged attempts are copied to their node before being executed,
+ * and their results are copied back after the slot was released, so that a node computes while its results are returned.
+ * With a prefetch depth, a staged node is also assigned its next jobs while the current ones run, and their inputs
+ * are copied in the background, within the free scratch space of the node.
+ *
+ * @author Cosmin Cara
+ */
+public class JobDispatcher {
+
+    /**
+     * Builds the command line of a job attempt for the node that pulled it.
+     */
+    public interface CommandFactory {
+        /**
+         * @param jobs      The jobs to be executed together (a single one, unless batching is enabled)
+         * @param node      The node that will execute the jobs
+         * @param attempt   The attempt number (0 for the first one). The attempt should produce, for each job,
+         *                  the result named {@link Job#getResultName(int)}.
+         */
+        List<String> create(List<Job> jobs, Node node, int attempt) throws IOException;
+    }
+
+    private static final long MONITOR_INTERVAL = 10;
+    private static final int MIN_SPECULATION_SAMPLES = 3;
+    private static final long PROBE_INTERVAL = 60;
+    private static final long PROGRESS_INTERVAL = 60;
+    private static final int MAX_STALL_RESCHEDULES = 1;
+    private static final long OUTPUT_WAIT = 60000;
+    private static final long OUTPUT_POLL_INTERVAL = 250;
+
+    private final List<Node> nodes;
+    private final CommandFactory commandFactory;
+    private final BlockingQueue<Job> queue;
+    private final List<Attempt> backups;
+    private final List<Attempt> retries;
+    private final Set<Attempt> running;
+    private final Set<Job> speculated;
+    private final Map<Job, Integer> stalls;
+    private final Map<Node, Deque<Attempt>> prefetched;
+    private final List<Long> durations;
+    private final List<Job> jobs;
+    private final List<JobListener> listeners;
+    private final AtomicInteger jobCounter;
+    private final Object lock;
+    private final Logger.CustomLogger logger;
+    private String user;
+    private String password;
+    private ExecutorType executorType = ExecutorType.SSH2;
+    private int agentPort;
+    private String agentToken;
+    private SimulationProfile simulationProfile;
+    private long monitorInterval = TimeUnit.SECONDS.toMillis(MONITOR_INTERVAL);
+    private ResultResolver resultResolver;
+    private NodeProber prober;
+    private RunMetrics metrics;
+    private Stager stager;
+    private ExecutorService stagingService;
+    private ExecutorService prefetchService;
+    private int prefetchDepth;
+    private Path logFolder;
+    private long jobTimeout;
+    private long stallTimeout;
+    private double speculationFactor;
+    private int maxBatchSize = 1;
+    private long batchMemory;
+    private ScheduledExecutorService monitor;
+    private ExecutorService stopService;
+    private int outstanding;
+    private boolean closed;
+    private volatile boolean stopped;
+
+    public JobDispatcher(List<Node> nodes, CommandFactory commandFactory) {
+        this(nodes, commandFactory, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a dispatcher whose queue holds at most <code>queueCapacity</code> jobs waiting for a slot.
+     * When the queue is full, {@link #submit(Path)} blocks until a slot pulls a job.
+     *
+     * @param nodes             The slave nodes
+     * @param commandFactory    The factory of job command lines
+     * @param queueCapacity     The capacity of the job queue
+     */
+    public JobDispatcher(List<Node> nodes, CommandFactory commandFactory, int queueCapacity) {
+        this.nodes = new ArrayList<>(nodes);
+        this.commandFactory = commandFactory;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.backups = new LinkedList<>();
+        this.retries = new LinkedList<>();
+        this.running = new LinkedHashSet<>();
+        this.speculated = new HashSet<>();
+        this.stalls = new HashMap<>();
+        this.prefetched = new HashMap<>();
+        this.durations = new ArrayList<>();
+        this.jobs = Collections.synchronizedList(new ArrayList<>());
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.jobCounter = new AtomicInteger(0);
+        this.lock = new Object();
+        this.logger = Logger.getRootLogger();
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Makes the jobs be executed by the agents resident on the nodes, instead of over SSH.
+     *
+     * @param port      The port of the agents
+     * @param token     The token expected by the agents
+     */
+    public void useAgents(int port, String token) {
+        this.executorType = ExecutorType.AGENT;
+        this.agentPort = port;
+        this.agentToken = token;
+    }
+
+    /**
+     * Makes the jobs be simulated according to the given profile, instead of being executed.
+     *
+     * @param profile   The simulation profile
+     */
+    public void simulate(SimulationProfile profile) {
+        this.executorType = ExecutorType.SIMULATED;
+        this.simulationProfile = profile;
+    }
+
+    /**
+     * Sets the interval between two checks of the running jobs (10 seconds by default).
+     * A shorter interval is needed when the time is scaled down by a simulation.
+     */
+    public void setMonitorInterval(long interval, TimeUnit unit) {
+        this.monitorInterval = Math.max(1, unit.toMillis(interval));
+    }
+
+    public void addListener(JobListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Sets the resolver used to discard the outputs of the attempts that are not retained and to measure
+     * the output latency. It is not set when the jobs produce no result file.
+     */
+    public void setResultResolver(ResultResolver resultResolver) {
+        this.resultResolver = resultResolver;
+    }
+
+    /**
+     * Sets the prober used to refresh periodically the status of the nodes.
+     */
+    public void setProber(NodeProber prober) {
+        this.prober = prober;
+    }
+
+    /**
+     * Sets the metrics in which the timings of the jobs are recorded.
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+        this.nodes.forEach(node -> metrics.addNode(node.getName(), node.getSlots()));
+        addListener(metrics);
+    }
+
+    /**
+     * Sets the folder in which the output of each job attempt is logged to its own file.
+     */
+    public void setLogFolder(Path logFolder) throws IOException {
+        this.logFolder = Files.createDirectories(logFolder);
+    }
+
+    /**
+     * Sets the stager that copies the inputs and the results of the jobs executed on nodes
+     * that don't see the shared folder.
+     */
+    public void setStager(Stager stager) {
+        this.stager = stager;
+        this.nodes.forEach(node -> node.setStaged(stager.isStaged(node)));
+        this.stagingService = Executors.newCachedThreadPool(Utilities.newThreadFactory("stage-out"));
+    }
+
+    /**
+     * Sets the number of attempts whose inputs are copied in advance, for each usable slot of a staged node.
+     * Requires a {@link Stager}.
+     *
+     * @param depth     The look-ahead depth (0 disables the prefetch)
+     */
+    public void setPrefetchDepth(int depth) {
+        if (this.stager == null) {
+            throw new IllegalStateException("The prefetch requires a stager");
+        }
+        this.prefetchDepth = Math.max(0, depth);
+        if (this.prefetchDepth > 0 && this.prefetchService == null) {
+            this.prefetchService = Executors.newCachedThreadPool(Utilities.newThreadFactory("prefetch"));
+        }
+    }
+
+    /**
+     * Updates the status of the given node.
+     *
+     * @param node      The node
+     * @param status    The node status
+     */
+    public void updateStatus(Node node, NodeStatus status) {
+        int previous = node.getActiveSlots();
+        node.setStatus(status, Constants.MIN_FREE_MEMORY, Constants.MIN_FREE_DISK);
+        updateBatchSize(node);
+        if (node.getActiveSlots() == 0) {
+            releasePrefetched(node);
+        }
+        if (node.getActiveSlots() != previous) {
+            logger.info("[[%s]] %s. Usable slots: %s of %s", node.getName(), status, node.getActiveSlots(), node.getSlots());
+        }
+    }
+
+    /**
+     * Enables the execution of several jobs in a single process. The number of jobs of a batch is limited
+     * by the memory of the node: the available memory is shared between the usable slots of the node,
+     * and each job of a batch needs <code>memoryPerJob</code> MB.
+     *
+     * @param maxBatchSize  The maximum number of jobs of a batch (1 disables batching)
+     * @param memoryPerJob  The memory (in MB) needed by a job of a batch
+     */
+    public void setBatching(int maxBatchSize, long memoryPerJob) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batchMemory = Math.max(0, memoryPerJob);
+        this.nodes.forEach(this::updateBatchSize);
+    }
+
+    /**
+     * Sets the deadline of a job attempt. An attempt running longer is stopped.
+     *
+     * @param timeout   The timeout (0 for no deadline)
+     * @param unit      The time unit of the timeout
+     */
+    public void setJobTimeout(long timeout, TimeUnit unit) {
+        this.jobTimeout = unit.toMillis(Math.max(0, timeout));
+    }
+
+    /**
+     * Sets the time after which a job whose progress does not advance is considered stalled.
+     * A stalled job is stopped and rescheduled (at most {@link #MAX_STALL_RESCHEDULES} times).
+     *
+     * @param timeout   The timeout (0 disables the stall detection)
+     * @param unit      The time unit of the timeout
+     */
+    public void setStallTimeout(long timeout, TimeUnit unit) {
+        this.stallTimeout = unit.toMillis(Math.max(0, timeout));
+    }
+
+    /**
+     * Enables the speculative execution: a job running longer than <code>factor</code> times the median
+     * duration of the completed jobs gets a backup copy on another node, if slots are idle.
+     *
+     * @param factor    The speculation factor (0 disables the speculative execution)
+     */
+    public void setSpeculationFactor(double factor) {
+        this.speculationFactor = Math.max(0, factor);
+    }
+
+    /**
+     * Returns the total number of slots of all the nodes.
+     */
+    public int getSlotCount() {
+        return this.nodes.stream().mapToInt(Node::getSlots).sum();
+    }
+
+    /**
+     * Starts one worker for every slot of every node, the monitor of the running jobs and,
+     * if a prober is set, the periodic probing of the nodes.
+     *
+     * @param executorService   The service that runs the slot workers
+     */
+    public void start(ExecutorService executorService) {
+        for (Node node : this.nodes) {
+            for (int slot = 0; slot < node.getSlots(); slot++) {
+                executorService.submit(() -> runSlot(node));
+            }
+        }
+        this.monitor = Executors.newSingleThreadScheduledExecutor(Utilities.newThreadFactory("dispatch-monitor"));
+        this.stopService = Executors.newCachedThreadPool(Utilities.newThreadFactory("stop"));
+        this.monitor.scheduleWithFixedDelay(this::monitor, this.monitorInterval, this.monitorInterval, TimeUnit.MILLISECONDS);
+        this.monitor.scheduleWithFixedDelay(this::logProgress, PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.SECONDS);
+        if (this.prober != null) {
+            this.monitor.scheduleWithFixedDelay(this::probe, PROBE_INTERVAL, PROBE_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Queues a new job for the given product, waiting for room in the queue if needed.
+     * If the calling thread is interrupted while waiting, the job is marked as failed.
+     *
+     * @param input     The input product, relative to the input folder
+     */
+    public Job submit(Path input) {
+        return submit(input, null);
+    }
+
+    /**
+     * Queues a new job for the given product, waiting for room in the queue if needed.
+     * If the calling thread is interrupted while waiting, the job is marked as failed.
+     *
+     * @param input         The input product, relative to the input folder
+     * @param fingerprint   The fingerprint of the input and of the processing graph
+     */
+    public Job submit(Path input, String fingerprint) {
+        Job job = new Job(this.jobCounter.incrementAndGet(), input, fingerprint);
+        synchronized (this.lock) {
+            if (this.closed) {
+                throw new IllegalStateException("The dispatcher does not accept new jobs");
+            }
+            this.outstanding++;
+        }
+        this.jobs.add(job);
+        notifyListeners(job);
+        try {
+            this.queue.put(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.setState(JobState.FAILED);
+            notifyListeners(job);
+            synchronized (this.lock) {
+                this.outstanding--;
+                this.lock.notifyAll();
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Signals that no more jobs will be submitted. The slot workers exit once all the jobs have completed.
+     */
+    public void close() {
+        synchronized (this.lock) {
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until all the submitted jobs have completed or the timeout has elapsed.
+     *
+     * @return  <code>true</code> if all the jobs completed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this.lock) {
+            while (!this.closed || this.outstanding > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this.lock, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a snapshot of all the submitted jobs, in submission order.
+     */
+    public List<Job> getJobs() {
+        synchronized (this.jobs) {
+            return new ArrayList<>(this.jobs);
+        }
+    }
+
+    /**
+     * Returns the overall progress (in percent) of the submitted jobs, a completed job counting as 100%.
+     */
+    public double getProgress() {
+        List<Job> jobs = getJobs();
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        return jobs.stream().mapToInt(job -> job.hasCompleted() ? 100 : job.getProgress()).sum() / (double) jobs.size();
+    }
+
+    /**
+     * Stops the jobs still running and discards the queued ones.
+     */
+    public void stop() {
+        this.stopped = true;
+        close();
+        this.queue.clear();
+        List<Attempt> attempts;
+        synchronized (this.lock) {
+            this.backups.clear();
+            this.retries.clear();
+            this.prefetched.clear();
+            attempts = new ArrayList<>(this.running);
+        }
+        attempts.forEach(Attempt::stop);
+        if (this.stagingService != null) {
+            this.stagingService.shutdownNow();
+        }
+        if (this.prefetchService != null) {
+            this.prefetchService.shutdownNow();
+        }
+        if (this.monitor != null) {
+            this.monitor.shutdownNow();
+        }
+        if (this.stopService != null) {
+            // the stops already requested are still carried out
+            this.stopService.shutdown();
+        }
+    }
+
+    private void runSlot(Node node) {
+        Attempt attempt;
+        while ((attempt = next(node)) != null) {
+            try {
+                prefetch(node);
+                execute(attempt, node);
+            } finally {
+                node.release(attempt.reservedMemory);
+            }
+        }
+    }
+
+    /**
+     * Returns the next attempt to be executed on the given node, once the node has a usable slot.
+     * Backup copies and retries take precedence over the queued jobs, but a backup is never executed
+     * on the node of the original attempt. The slot reserved for the returned attempt must be released by the caller.
+     */
+    private Attempt next(Node node) {
+        try {
+            while (!this.stopped) {
+                long reservedMemory = node.tryAcquire();
+                if (reservedMemory >= 0) {
+                    Attempt attempt = poll(node);
+                    if (attempt != null) {
+                        attempt.reservedMemory = reservedMemory;
+                        return attempt;
+                    }
+                    node.release(reservedMemory);
+                } else {
+                    TimeUnit.SECONDS.sleep(1);
+                }
+                synchronized (this.lock) {
+                    if (this.closed && this.outstanding == 0) {
+                        return null;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private Attempt poll(Node node) throws InterruptedException {
+        synchronized (this.lock) {
+            Iterator<Attempt> iterator = this.backups.iterator();
+            while (iterator.hasNext()) {
+                Attempt backup = iterator.next();
+                if (backup.excluded != node) {
+                    iterator.remove();
+                    return backup;
+                }
+            }
+            if (!this.retries.isEmpty()) {
+                return this.retries.remove(0);
+            }
+            Deque<Attempt> ahead = this.prefetched.get(node);
+            if (ahead != null && !ahead.isEmpty()) {
+                return ahead.poll();
+            }
+        }
+        Job job = this.queue.poll(1, TimeUnit.SECONDS);
+        if (job == null) {
+            return null;
+        }
+        List<Job> batch = new ArrayList<>();
+        batch.add(job);
+        if (node.getBatchSize() > 1) {
+            this.queue.drainTo(batch, node.getBatchSize() - 1);
+        }
+        return new Attempt(batch, 0, null);
+    }
+
+    /**
+     * Assigns to the given node its next attempts, up to the prefetch depth, and starts copying their inputs.
+     * An attempt whose inputs don't fit in the free scratch space of the node is left to any slot.
+     */
+    private void prefetch(Node node) {
+        if (this.prefetchDepth == 0 || !this.stager.isStaged(node)) {
+            return;
+        }
+        while (!this.stopped) {
+            synchronized (this.lock) {
+                if (this.prefetched.computeIfAbsent(node, n -> new ArrayDeque<>()).size() >=
+                        this.prefetchDepth * node.getActiveSlots()) {
+                    return;
+                }
+            }
+            List<Job> batch = new ArrayList<>();
+            this.queue.drainTo(batch, node.getBatchSize());
+            if (batch.isEmpty()) {
+                return;
+            }
+            Attempt attempt = new Attempt(batch, 0, null);
+            long size = 0;
+            for (Job job : batch) {
+                try {
+                    size += this.stager.getInputSize(job);
+                } catch (IOException e) {
+                    logger.warn("Job %s: cannot compute the input size: %s", job, e.getMessage());
+                }
+            }
+            if (!node.tryReserveScratch(size)) {
+                synchronized (this.lock) {
+                    this.retries.add(attempt);
+                }
+                return;
+            }
+            attempt.scratch = size;
+            try {
+                attempt.prefetch = this.prefetchService.submit(() -> {
+                    stageIn(attempt, node);
+                    return null;
+                });
+            } catch (RejectedExecutionException e) {
+                // the jobs were already taken from the queue, they are left to any slot
+                node.releaseScratch(size);
+                synchronized (this.lock) {
+                    this.retries.add(new Attempt(batch, 0, null));
+                }
+                return;
+            }
+            synchronized (this.lock) {
+                this.prefetched.computeIfAbsent(node, n -> new ArrayDeque<>()).add(attempt);
+            }
+            logger.info("Jobs %s prefetched to [[%s]] (%sMB)", batch, node.getName(), size);
+        }
+    }
+
+    /**
+     * Gives the attempts prefetched to the given node, which can no longer execute them, to any slot.
+     */
+    private void releasePrefetched(Node node) {
+        List<Attempt> attempts;
+        synchronized (this.lock) {
+            Deque<Attempt> ahead = this.prefetched.get(node);
+            if (ahead == null || ahead.isEmpty()) {
+                return;
+            }
+            attempts = new ArrayList<>(ahead);
+            ahead.clear();
+            attempts.forEach(attempt -> this.retries.add(new Attempt(attempt.jobs, 0, null)));
+        }
+        logger.warn("[[%s]] cannot execute jobs. Its prefetched jobs are given to the other nodes", node.getName());
+        for (Attempt attempt : attempts) {
+            attempt.prefetch.cancel(true);
+            this.prefetchService.submit(() -> {
+                attempt.jobs.forEach(job -> this.stager.cleanup(job, node, attempt.number));
+                node.releaseScratch(attempt.scratch);
+            });
+        }
+    }
+
+    private void updateBatchSize(Node node) {
+        int size = this.maxBatchSize;
+        NodeStatus status = node.getStatus();
+        if (size > 1 && this.batchMemory > 0 && status != null && status.getFreeMemory() != Long.MAX_VALUE) {
+            long memoryPerSlot = status.getFreeMemory() / Math.max(1, node.getActiveSlots());
+            size = (int) Math.max(1, Math.min(size, memoryPerSlot / this.batchMemory));
+        }
+        node.setBatchSize(size);
+    }
+
+    private void execute(Attempt attempt, Node node) {
+        synchronized (this.lock) {
+            attempt.jobs.removeIf(Job::hasCompleted);
+            if (attempt.jobs.isEmpty()) {
+                node.releaseScratch(attempt.scratch);
+                return;
+            }
+            attempt.node = node;
+            attempt.started = System.currentTimeMillis();
+            attempt.progressed = attempt.started;
+            this.running.add(attempt);
+        }
+        for (Job job : attempt.jobs) {
+            if (attempt.number == 0) {
+                if (this.metrics != null) {
+                    this.metrics.record(RunMetrics.PHASE_QUEUE_WAIT, node.getName(), attempt.started - job.getSubmitted());
+                }
+                job.setNode(node.getName());
+                job.setState(JobState.RUNNING);
+                notifyListeners(job);
+            } else {
+                logger.info("Job %s: backup copy started on [[%s]]", job, node.getName());
+            }
+        }
+        if (attempt.jobs.size() > 1) {
+            logger.info("Jobs %s batched on [[%s]]", attempt.jobs, node.getName());
+        }
+        int returnCode;
+        Logger.ScopeLogger outputLogger = null;
+        boolean staged = this.stager != null && this.stager.isStaged(node);
+        try {
+            if (staged && attempt.prefetch != null) {
+                awaitPrefetch(attempt);
+            } else if (staged) {
+                stageIn(attempt, node);
+            }
+            List<String> arguments = this.commandFactory.create(attempt.jobs, node, attempt.number);
+            ExecutorType type = node.isLocal() && this.executorType == ExecutorType.SSH2 ? ExecutorType.LOCAL : this.executorType;
+            Executor executor = Executor.create(type, node.getName(), arguments, null);
+            executor.setUser(this.user);
+            executor.setPassword(this.password);
+            if (executor instanceof SSHExecutor && Constants.CONST_LINUX.equals(node.getOs())) {
+                ((SSHExecutor) executor).setRemoteKill(true);
+            } else if (executor instanceof AgentExecutor) {
+                ((AgentExecutor) executor).setPort(this.agentPort);
+                ((AgentExecutor) executor).setToken(this.agentToken);
+            } else if (executor instanceof SimulatedExecutor) {
+                ((SimulatedExecutor) executor).setProfile(this.simulationProfile);
+            }
+            if (this.logFolder != null) {
+                Job first = attempt.jobs.get(0);
+                Path logFile = this.logFolder.resolve((attempt.jobs.size() > 1 ? "batch_" : "") +
+                                                      first.getResultName(attempt.number) + ".log");
+                outputLogger = new Logger.ScopeLogger(logFile.toString());
+                executor.setOutputLogger(outputLogger);
+                logger.info("Jobs %s: output of [[%s]] logged to %s", attempt.jobs, node.getName(), logFile);
+            }
+            executor.setProgressListener(attempt::progress);
+            attempt.setExecutor(executor);
+            executor.run();
+            returnCode = executor.getReturnCode();
+            if (this.metrics != null) {
+                this.metrics.record(RunMetrics.PHASE_CONNECT, node.getName(), executor.getConnectTime());
+                if (returnCode == 0) {
+                    long runtime = (executor.getExecutionTime() - executor.getConnectTime()) / attempt.jobs.size();
+                    attempt.jobs.forEach(job -> this.metrics.record(RunMetrics.PHASE_RUNTIME, node.getName(), runtime));
+                }
+            }
+        } catch (Exception e) {
+            returnCode = -255;
+            logger.error("Jobs %s could not be executed on [[%s]]: %s", attempt.jobs, node.getName(), e.getMessage());
+        } finally {
+            if (outputLogger != null) {
+                try {
+                    outputLogger.close();
+                } catch (IOException e) {
+                    logger.warn("Cannot close the log of jobs %s: %s", attempt.jobs, e.getMessage());
+                }
+            }
+        }
+        if (this.metrics != null) {
+            this.metrics.addBusyTime(node.getName(), System.currentTimeMillis() - attempt.started);
+        }
+        if (staged) {
+            int code = returnCode;
+            try {
+                this.stagingService.submit(() -> complete(attempt, stageOut(attempt, code)));
+                return;
+            } catch (RejectedExecutionException e) {
+                returnCode = -254;
+            }
+        }
+        complete(attempt, returnCode);
+    }
+
+    /**
+     * Copies the inputs of the given attempt to its node. The attempt is not monitored meanwhile.
+     */
+    private void stageIn(Attempt attempt, Node node) throws IOException {
+        attempt.transferring = true;
+        try {
+            long start = System.currentTimeMillis();
+            for (Job job : attempt.jobs) {
+                this.stager.stageIn(job, node, attempt.number);
+            }
+            if (this.metrics != null) {
+                long duration = (System.currentTimeMillis() - start) / attempt.jobs.size();
+                attempt.jobs.forEach(job -> this.metrics.record(RunMetrics.PHASE_STAGE_IN, node.getName(), duration));
+            }
+        } finally {
+            attempt.progressed = System.currentTimeMillis();
+            attempt.transferring = false;
+        }
+    }
+
+    /**
+     * Waits until the inputs of the given prefetched attempt are copied. The attempt is not monitored meanwhile.
+     */
+    private void awaitPrefetch(Attempt attempt) throws IOException {
+        attempt.transferring = true;
+        try {
+            attempt.prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            attempt.progressed = System.currentTimeMillis();
+            attempt.transferring = false;
+        }
+    }
+
+    /**
+     * Copies back the results of the given attempt, if it succeeded, and cleans up its node.
+     *
+     * @return  The return code of the attempt, or -254 if a result could not be copied
+     */
+    private int stageOut(Attempt attempt, int returnCode) {
+        attempt.transferring = true;
+        Node node = attempt.node;
+        long start = System.currentTimeMillis();
+        for (Job job : attempt.jobs) {
+            if (returnCode == 0 && !job.hasCompleted() && !this.stopped) {
+                try {
+                    this.stager.stageOut(job, node, attempt.number);
+                } catch (IOException e) {
+                    logger.error("Job %s: the result could not be copied from [[%s]]: %s", job, node.getName(), e.getMessage());
+                    returnCode = -254;
+                }
+            }
+            this.stager.cleanup(job, node, attempt.number);
+        }
+        node.releaseScratch(attempt.scratch);
+        if (this.metrics != null && returnCode == 0) {
+            long duration = (System.currentTimeMillis() - start) / attempt.jobs.size();
+            attempt.jobs.forEach(job -> this.metrics.record(RunMetrics.PHASE_STAGE_OUT, node.getName(), duration));
+        }
+        return returnCode;
+    }
+
+    /**
+     * Records the outcome of an attempt. The first successful attempt completes a job and stops the other
+     * attempts of the job; a failed attempt fails a job only if no other attempt of the job is still pending.
+     * The jobs of a failed batch are retried individually.
+     */
+    private void complete(Attempt attempt, int returnCode) {
+        if (attempt.stalled && attempt.jobs.size() == 1 && !this.stopped && reschedule(attempt)) {
+            return;
+        }
+        if (returnCode != 0 && attempt.jobs.size() > 1 && !this.stopped) {
+            logger.warn("Batch %s failed on [[%s]]. Its jobs will be executed one by one",
+                        attempt.jobs, attempt.node.getName());
+            attempt.jobs.forEach(job -> discardOutput(job, attempt.number));
+            synchronized (this.lock) {
+                this.running.remove(attempt);
+                for (Job job : attempt.jobs) {
+                    this.retries.add(new Attempt(Collections.singletonList(job), attempt.number, null));
+                }
+            }
+            return;
+        }
+        List<Job> finished = new ArrayList<>();
+        List<Attempt> losers = new ArrayList<>();
+        synchronized (this.lock) {
+            this.running.remove(attempt);
+            for (Job job : attempt.jobs) {
+                if (job.hasCompleted()) {
+                    continue;
+                }
+                if (returnCode == 0) {
+                    job.setAttempt(attempt.number);
+                    job.setNode(attempt.node.getName());
+                    job.setReturnCode(returnCode);
+                    job.setState(JobState.DONE);
+                    this.durations.add((System.currentTimeMillis() - attempt.started) / attempt.jobs.size());
+                    this.running.stream()
+                            .filter(a -> a.jobs.contains(job) && a.jobs.stream().allMatch(Job::hasCompleted))
+                            .forEach(losers::add);
+                    this.backups.removeIf(a -> a.jobs.contains(job));
+                    finished.add(job);
+                } else if (this.running.stream().noneMatch(a -> a.jobs.contains(job))) {
+                    // a pending backup of a failed job becomes a retry, that may run on any node
+                    List<Attempt> pending = this.backups.stream().filter(a -> a.jobs.contains(job)).collect(Collectors.toList());
+                    if (pending.isEmpty()) {
+                        job.setReturnCode(returnCode);
+                        job.setState(JobState.FAILED);
+                        finished.add(job);
+                    } else {
+                        this.backups.removeAll(pending);
+                        pending.forEach(a -> this.retries.add(new Attempt(a.jobs, a.number, null)));
+                        logger.warn("Job %s failed on [[%s]]. Its backup copy is retried on any node",
+                                    job, attempt.node.getName());
+                    }
+                }
+            }
+            for (Job job : finished) {
+                this.outstanding--;
+                logger.info("Job %s completed on [[%s]] with state %s. Remaining jobs: %s",
+                            job, job.getNode(), job.getState(), this.outstanding);
+            }
+            if (!finished.isEmpty()) {
+                this.lock.notifyAll();
+            }
+        }
+        if (this.metrics != null && this.resultResolver != null) {
+            finished.stream()
+                    .filter(job -> job.getState() == JobState.DONE)
+                    .forEach(job -> measureOutputLatency(job, attempt.node.getName()));
+        }
+        finished.forEach(this::notifyListeners);
+        for (Attempt loser : losers) {
+            logger.info("Jobs %s: stopping the slower copy on [[%s]]", loser.jobs, loser.node.getName());
+            stopAsync(loser);
+        }
+        for (Job job : attempt.jobs) {
+            if (job.getState() != JobState.DONE || job.getAttempt() != attempt.number) {
+                discardOutput(job, attempt.number);
+            }
+        }
+    }
+
+    /**
+     * Reschedules the job of a stalled attempt, unless it was already rescheduled too many times or
+     * another attempt of the job is pending.
+     *
+     * @return  <code>true</code> if the job was rescheduled
+     */
+    private boolean reschedule(Attempt attempt) {
+        Job job = attempt.jobs.get(0);
+        synchronized (this.lock) {
+            if (job.hasCompleted() || this.stalls.merge(job, 1, Integer::sum) > MAX_STALL_RESCHEDULES ||
+                    this.running.stream().anyMatch(a -> a != attempt && a.jobs.contains(job)) ||
+                    this.backups.stream().anyMatch(a -> a.jobs.contains(job))) {
+                return false;
+            }
+            this.running.remove(attempt);
+        }
+        // the partial output is discarded before the job is visible again to the slots
+        discardOutput(job, attempt.number);
+        job.setProgress(0);
+        synchronized (this.lock) {
+            this.retries.add(new Attempt(attempt.jobs, attempt.number, null));
+        }
+        logger.warn("Job %s stalled on [[%s]] and is rescheduled", job, attempt.node.getName());
+        return true;
+    }
+
+    /**
+     * Measures, on the monitor, the time until the result of the given job is visible on the master,
+     * giving up after {@link #OUTPUT_WAIT} ms. The slot of the job is not held meanwhile.
+     */
+    private void measureOutputLatency(Job job, String node) {
+        Path result = this.resultResolver.resolve(job.getResultName());
+        long start = System.currentTimeMillis();
+        Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                long waited = System.currentTimeMillis() - start;
+                if (Files.exists(result) || waited >= OUTPUT_WAIT) {
+                    metrics.record(RunMetrics.PHASE_OUTPUT_LATENCY, node, waited);
+                } else {
+                    scheduleOutputCheck(this, OUTPUT_POLL_INTERVAL);
+                }
+            }
+        };
+        scheduleOutputCheck(check, 0);
+    }
+
+    private void scheduleOutputCheck(Runnable check, long delay) {
+        try {
+            this.monitor.schedule(check, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // the dispatcher was stopped
+        }
+    }
+
+    private void discardOutput(Job job, int attempt) {
+        if (this.resultResolver != null) {
+            Path result = this.resultResolver.resolve(job.getResultName(attempt));
+            try {
+                if (Files.deleteIfExists(result)) {
+                    logger.info("Job %s: discarded %s", job, result);
+                }
+            } catch (IOException e) {
+                logger.warn("Job %s: cannot discard %s: %s", job, result, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops the attempts that exceeded their deadline or stalled, and schedules backup copies of the stragglers.
+     */
+    private void monitor() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Attempt> expired = new ArrayList<>();
+            List<Attempt> stalled = new ArrayList<>();
+            synchronized (this.lock) {
+                if (this.jobTimeout > 0) {
+                    this.running.stream()
+                            .filter(a -> !a.transferring && now - a.started > this.jobTimeout * a.jobs.size())
+                            .forEach(expired::add);
+                }
+                if (this.stallTimeout > 0) {
+                    for (Attempt attempt : this.running) {
+                        if (!attempt.transferring && !expired.contains(attempt) && !attempt.stalled &&
+                                now - attempt.progressed > this.stallTimeout) {
+                            logger.warn("Jobs %s stalled on [[%s]] at %s%% for %ss and will be stopped",
+                                        attempt.jobs, attempt.node.getName(), attempt.progress,
+                                        (now - attempt.progressed) / 1000);
+                            attempt.stalled = true;
+                            stalled.add(attempt);
+                        }
+                    }
+                }
+                if (this.speculationFactor > 0 && this.queue.isEmpty() && this.durations.size() >= MIN_SPECULATION_SAMPLES) {
+                    // a backup never runs on the node of the original attempt, so only the idle slots of the others count
+                    Map<Node, Integer> idleSlots = new HashMap<>();
+                    this.nodes.forEach(n -> idleSlots.put(n, Math.max(0, n.getActiveSlots() - n.getBusySlots())));
+                    int idle = idleSlots.values().stream().mapToInt(Integer::intValue).sum() - this.backups.size();
+                    long median = median(this.durations);
+                    for (Attempt attempt : this.running) {
+                        if (idle <= 0) {
+                            break;
+                        }
+                        long elapsed = now - attempt.started;
+                        if (idle - idleSlots.getOrDefault(attempt.node, 0) > 0 &&
+                                attempt.number == 0 && attempt.jobs.size() == 1 && !attempt.transferring && !expired.contains(attempt) &&
+                                !this.speculated.contains(attempt.jobs.get(0)) && elapsed > this.speculationFactor * median) {
+                            logger.info("Job %s runs on [[%s]] for %ss (median is %ss). A backup copy is scheduled",
+                                        attempt.jobs.get(0), attempt.node.getName(), elapsed / 1000, median / 1000);
+                            this.speculated.add(attempt.jobs.get(0));
+                            this.backups.add(new Attempt(attempt.jobs, 1, attempt.node));
+                            idle--;
+                        }
+                    }
+                }
+            }
+            for (Attempt attempt : expired) {
+                logger.warn("Jobs %s exceeded their deadline on [[%s]] and will be stopped", attempt.jobs, attempt.node.getName());
+                stopAsync(attempt);
+            }
+            stalled.forEach(this::stopAsync);
+        } catch (Exception e) {
+            logger.error("Job monitor failed: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the given attempt aside, since stopping a remote execution involves network calls that must not
+     * hold up the monitor or the completion of other attempts.
+     */
+    private void stopAsync(Attempt attempt) {
+        ExecutorService service = this.stopService;
+        if (service != null) {
+            try {
+                service.submit(attempt::stop);
+                return;
+            } catch (RejectedExecutionException ignored) {
+                // the dispatcher is stopping
+            }
+        }
+        attempt.stop();
+    }
+
+    /**
+     * Logs the overall progress and the estimated time left, extrapolated from the progress made so far.
+     */
+    private void logProgress() {
+        List<Job> jobs = getJobs();
+        long completed = jobs.stream().filter(Job::hasCompleted).count();
+        if (jobs.isEmpty() || completed == jobs.size()) {
+            return;
+        }
+        double progress = getProgress();
+        long elapsed = System.currentTimeMillis() - jobs.stream().mapToLong(Job::getSubmitted).min().getAsLong();
+        String eta = "unknown";
+        if (progress > 0) {
+            long seconds = (long) (elapsed * (100 - progress) / progress / 1000);
+            eta = String.format("%02dh%02dm%02ds", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+        }
+        logger.info("Progress: %.1f%% (%s of %s jobs completed), ETA %s", progress, completed, jobs.size(), eta);
+    }
+
+    private void probe() {
+        for (Node node : this.nodes) {
+            NodeStatus status = this.prober.probe(node.getName(), node.getOs());
+            if (status != null) {
+                updateStatus(node, status);
+            }
+        }
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private void notifyListeners(Job job) {
+        for (JobListener listener : this.listeners) {
+            try {
+                listener.stateChanged(job);
+            } catch (Exception e) {
+                logger.warn("Job listener failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * An execution of one or several (batched) jobs on a node. A job has two attempts when a backup copy is launched.
+     */
+    private static class Attempt {
+        private final List<Job> jobs;
+        private final int number;
+        private final Node excluded;
+        private Node node;
+        private long started;
+        private long reservedMemory;
+        private long scratch;
+        private volatile Future<Void> prefetch;
+        private volatile int progress;
+        private volatile long progressed;
+        private volatile boolean stalled;
+        private volatile boolean transferring;
+        private Executor executor;
+        private boolean stopRequested;
+
+        Attempt(List<Job> jobs, int number, Node excluded) {
+            this.jobs = new ArrayList<>(jobs);
+            this.number = number;
+            this.excluded = excluded;
+        }
+
+        synchronized void setExecutor(Executor executor) {
+            this.executor = executor;
+            if (this.stopRequested) {
+                executor.stop();
+            }
+        }
+
+        /**
+         * Records the progress printed by the attempt. Only an advance resets the stall detection.
+         */
+        void progress(int percent) {
+            if (percent > this.progress) {
+                this.progress = percent;
+                this.progressed = System.currentTimeMillis();
+                for (Job job : this.jobs) {
+                    if (percent > job.getProgress()) {
+                        job.setProgress(percent);
+                    }
+                }
+            }
+        }
+
+        synchronized void stop() {
+            this.stopRequested = true;
+            if (this.executor != null) {
+                this.executor.stop();
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.util.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of the slave jobs. Each state change of a job is recorded as a line:
+ * <pre>timestamp   product   state   result   fingerprint</pre>
+ * (tab separated). When a run is restarted, the last recorded state of each product tells
+ * whether it needs to be processed again.
+ *
+ * @author Cosmin Cara
+ */
+public class JobJournal implements JobListener, AutoCloseable {
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private final Logger.CustomLogger logger;
+    private ResultResolver resultResolver;
+    private BufferedWriter writer;
+
+    /**
+     * The last recorded state of a product.
+     */
+    public static class Entry {
+        private final JobState state;
+        private final String result;
+        private final String fingerprint;
+
+        Entry(JobState state, String result, String fingerprint) {
+            this.state = state;
+            this.result = result;
+            this.fingerprint = fingerprint;
+        }
+
+        public JobState getState() { return this.state; }
+
+        public String getResult() { return this.result; }
+
+        public String getFingerprint() { return this.fingerprint; }
+    }
+
+    /**
+     * Opens the journal stored in the given file, loading the previously recorded states, if any.
+     *
+     * @param file      The journal file
+     *
+     * @throws IOException
+     */
+    public JobJournal(Path file) throws IOException {
+        this.file = file;
+        this.entries = new HashMap<>();
+        this.logger = Logger.getRootLogger();
+        if (Files.exists(file)) {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                String[] tokens = line.split(SEPARATOR, -1);
+                if (tokens.length == 5) {
+                    try {
+                        this.entries.put(tokens[1], new Entry(JobState.valueOf(tokens[2]), tokens[3], tokens[4]));
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("Invalid journal line: %s", line);
+                    }
+                }
+            }
+            logger.info("Journal %s loaded (%s products)", file, this.entries.size());
+        }
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                                              StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Sets the resolver of the result files of the jobs. When not set, the jobs are not expected to produce
+     * a result file (as for Sen2Cor), and a job is done once its completion was recorded.
+     */
+    public void setResultResolver(ResultResolver resultResolver) {
+        this.resultResolver = resultResolver;
+    }
+
+    /**
+     * Returns the last recorded state of the given product, or <code>null</code> if the product is not in the journal.
+     *
+     * @param product   The input product, relative to the input folder
+     */
+    public synchronized Entry get(Path product) {
+        return this.entries.get(product.toString());
+    }
+
+    /**
+     * Tells if the given product was already processed successfully from the same input and with the same graph,
+     * and its result, if one is expected, still exists.
+     *
+     * @param product       The input product, relative to the input folder
+     * @param fingerprint   The current fingerprint of the product and graph
+     */
+    public synchronized boolean isDone(Path product, String fingerprint) {
+        Entry entry = this.entries.get(product.toString());
+        return entry != null && entry.state == JobState.DONE &&
+                entry.fingerprint.equals(fingerprint) &&
+                (entry.result.isEmpty() || Files.exists(Paths.get(entry.result)));
+    }
+
+    @Override
+    public synchronized void stateChanged(Job job) {
+        String key = job.getInput().toString();
+        Path result = this.resultResolver != null ? this.resultResolver.resolve(job.getResultName()) : null;
+        Entry entry = new Entry(job.getState(),
+                                result != null ? result.toString() : "",
+                                job.getFingerprint() != null ? job.getFingerprint() : "");
+        this.entries.put(key, entry);
+        if (this.writer != null) {
+            try {
+                this.writer.write(Instant.now().toString() + SEPARATOR + key + SEPARATOR + entry.state.name() +
+                                  SEPARATOR + entry.result + SEPARATOR + entry.fingerprint);
+                this.writer.newLine();
+                this.writer.flush();
+            } catch (IOException e) {
+                logger.error("Cannot write to journal %s: %s", this.file, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.writer != null) {
+            this.writer.close();
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the given input and processing graph. The input is characterized by its
+     * path, size and last modification time.
+     *
+     * @param input     The input product, as seen from the master node
+     * @param graph     The description of the processing graph and of the format of its result
+     *
+     * @throws IOException
+     */
+    public static String fingerprint(Path input, String graph) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(input.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(String.valueOf(Files.size(input)).getBytes(StandardCharsets.UTF_8));
+            digest.update(String.valueOf(Files.getLastModifiedTime(input).toMillis()).getBytes(StandardCharsets.UTF_8));
+            digest.update(graph.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
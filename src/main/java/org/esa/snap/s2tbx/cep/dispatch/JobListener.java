@@ -0,0 +1,16 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+/**
+ * Receives the state changes of the jobs handled by a {@link JobDispatcher}.
+ * The notifications are sent from the dispatcher threads, hence implementations must be thread-safe.
+ *
+ * @author Cosmin Cara
+ */
+public interface JobListener {
+    /**
+     * Invoked after the state of the given job has changed.
+     *
+     * @param job   The job
+     */
+    void stateChanged(Job job);
+}
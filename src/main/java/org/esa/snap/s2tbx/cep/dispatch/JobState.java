@@ -0,0 +1,25 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+/**
+ * The states a slave job goes through.
+ *
+ * @author Cosmin Cara
+ */
+public enum JobState {
+    /**
+     * The job waits for a free slot.
+     */
+    QUEUED,
+    /**
+     * The job is executing on a slave node.
+     */
+    RUNNING,
+    /**
+     * The job completed successfully.
+     */
+    DONE,
+    /**
+     * The job completed with an error.
+     */
+    FAILED
+}
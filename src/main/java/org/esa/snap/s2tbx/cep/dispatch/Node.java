@@ -0,0 +1,219 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+/**
+ * Describes a slave node and the number of jobs it may run concurrently.
+ * The number of slots is an upper bound: when the node is probed, the number of slots
+ * actually used is lowered according to the load of the node (e.g. when it is shared with other tenants),
+ * the available memory and the free scratch space.
+ * The probed status also gives the threads and heap of each job, sharing the cores and the physical memory
+ * of the node between its slots, and a job is admitted only if the memory of the running jobs plus its own
+ * memory fits in the physical memory of the node.
+ * The inputs copied in advance to the scratch folder of the node are accounted against its free scratch space.
+ *
+ * @author Cosmin Cara
+ */
+public class Node {
+
+    private static final double JVM_OVERHEAD = 1.25;
+    private static final double TILE_CACHE_RATIO = 0.6;
+
+    private final String name;
+    private final String os;
+    private final int slots;
+    private volatile int activeSlots;
+    private volatile NodeStatus status;
+    private volatile int batchSize = 1;
+    private volatile boolean staged;
+    private int busySlots;
+    private int jobThreads;
+    private long jobHeap;
+    private int fixedThreads;
+    private long fixedHeap;
+    private long memoryBudget;
+    private long reservedMemory;
+    private long scratchBudget = Long.MAX_VALUE;
+    private long reservedScratch;
+
+    public Node(String name, String os, int slots) {
+        this.name = name;
+        this.os = os;
+        this.slots = Math.max(1, slots);
+        this.activeSlots = this.slots;
+    }
+
+    public String getName() { return this.name; }
+
+    public String getOs() { return this.os; }
+
+    /**
+     * Tells if the node is the local host, whose jobs are executed as local processes.
+     */
+    public boolean isLocal() { return isLocal(this.name); }
+
+    public static boolean isLocal(String name) {
+        return "localhost".equalsIgnoreCase(name) || "127.0.0.1".equals(name);
+    }
+
+    /**
+     * Returns the maximum number of concurrent jobs.
+     */
+    public int getSlots() { return this.slots; }
+
+    /**
+     * Returns the number of concurrent jobs allowed by the last known status of the node.
+     */
+    public int getActiveSlots() { return this.activeSlots; }
+
+    /**
+     * Returns the maximum number of jobs executed together in a slot.
+     */
+    public int getBatchSize() { return this.batchSize; }
+
+    void setBatchSize(int batchSize) { this.batchSize = Math.max(1, batchSize); }
+
+    public synchronized int getBusySlots() { return this.busySlots; }
+
+    /**
+     * Tells if the jobs of the node use its scratch folder, in which case its free scratch space limits the jobs.
+     */
+    public boolean isStaged() { return this.staged; }
+
+    void setStaged(boolean staged) { this.staged = staged; }
+
+    /**
+     * Returns the number of threads of a job, or 0 if unknown.
+     */
+    public synchronized int getJobThreads() { return this.jobThreads; }
+
+    /**
+     * Returns the maximum heap (in MB) of a job, or 0 if unknown.
+     */
+    public synchronized long getJobHeap() { return this.jobHeap; }
+
+    /**
+     * Returns the tile cache size (in MB) of a job, or 0 if unknown.
+     */
+    public synchronized long getTileCache() { return (long) (this.jobHeap * TILE_CACHE_RATIO); }
+
+    /**
+     * Sets fixed job limits, which take precedence over the ones derived from the node status.
+     *
+     * @param threads   The number of threads of a job (0 to derive it from the node status)
+     * @param heap      The maximum heap (in MB) of a job (0 to derive it from the node status)
+     */
+    public synchronized void setJobLimits(int threads, long heap) {
+        this.fixedThreads = Math.max(0, threads);
+        this.fixedHeap = Math.max(0, heap);
+        if (this.fixedThreads > 0) {
+            this.jobThreads = this.fixedThreads;
+        }
+        if (this.fixedHeap > 0) {
+            this.jobHeap = this.fixedHeap;
+        }
+    }
+
+    /**
+     * Returns the last known status of the node, or <code>null</code> if the node was not probed.
+     */
+    public NodeStatus getStatus() { return this.status; }
+
+    /**
+     * Updates the status of the node and recomputes the number of usable slots.
+     * The load not caused by the jobs of this node is converted into busy slots, considering that a job
+     * uses an equal share of the cores. No new job is accepted when memory runs low, except on an idle node,
+     * or when the scratch space of a staged node runs low.
+     * The threads and heap of a job are derived from the cores and physical memory of the node
+     * (less <code>minFreeMemory</code> left to the system).
+     *
+     * @param status            The new status
+     * @param minFreeMemory     The minimum available memory (in MB) for starting a new job
+     * @param minFreeDisk       The minimum free scratch space (in MB) for starting a new job
+     */
+    public synchronized void setStatus(NodeStatus status, long minFreeMemory, long minFreeDisk) {
+        this.status = status;
+        double coresPerSlot = Math.max(1.0, (double) status.getCores() / this.slots);
+        double foreignLoad = Math.max(0, status.getLoad() - this.busySlots * coresPerSlot);
+        int active = (int) Math.floor((status.getCores() - foreignLoad) / coresPerSlot);
+        active = Math.max(1, Math.min(this.slots, active));
+        if (status.getFreeMemory() < minFreeMemory) {
+            // an idle node keeps a slot, otherwise it would never be used again
+            active = Math.min(active, Math.max(1, this.busySlots));
+        }
+        if (this.staged && status.getFreeDisk() < minFreeDisk) {
+            active = 0;
+        }
+        this.activeSlots = active;
+        if (status.getTotalMemory() != Long.MAX_VALUE) {
+            this.memoryBudget = Math.max(0, status.getTotalMemory() - minFreeMemory);
+        }
+        this.jobThreads = this.fixedThreads > 0 ? this.fixedThreads : Math.max(1, status.getCores() / this.slots);
+        this.jobHeap = this.fixedHeap > 0 ? this.fixedHeap :
+                (long) (this.memoryBudget / this.slots / JVM_OVERHEAD);
+        if (status.getFreeDisk() != Long.MAX_VALUE) {
+            // the reserved inputs are considered already written, hence already deducted from the free space
+            this.scratchBudget = Math.max(0, status.getFreeDisk() + this.reservedScratch - minFreeDisk);
+        }
+    }
+
+    /**
+     * Reserves a slot and the memory of a new job, if the node has a usable slot left and enough memory.
+     * A job is always admitted on an idle node.
+     *
+     * @return  The reserved memory (in MB), or -1 if the job is not admitted
+     */
+    synchronized long tryAcquire() {
+        long memory = (long) (this.jobHeap * JVM_OVERHEAD);
+        if (this.busySlots < this.activeSlots &&
+                (this.busySlots == 0 || this.memoryBudget == 0 || this.reservedMemory + memory <= this.memoryBudget)) {
+            this.busySlots++;
+            this.reservedMemory += memory;
+            return memory;
+        }
+        return -1;
+    }
+
+    /**
+     * Releases a slot and the memory reserved by {@link #tryAcquire()}.
+     *
+     * @param memory    The reserved memory
+     */
+    synchronized void release(long memory) {
+        this.busySlots--;
+        this.reservedMemory -= memory;
+    }
+
+    /**
+     * Reserves scratch space for an input copied in advance, if it fits in the free scratch space of the node
+     * (as last probed, less the minimum free space). An input is always admitted when nothing is reserved.
+     *
+     * @param size  The size (in MB) of the input
+     *
+     * @return  <code>true</code> if the space was reserved
+     */
+    synchronized boolean tryReserveScratch(long size) {
+        if (this.reservedScratch == 0 || this.reservedScratch + size <= this.scratchBudget) {
+            this.reservedScratch += size;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the scratch space (in MB) currently reserved for inputs copied in advance.
+     */
+    synchronized long getReservedScratch() { return this.reservedScratch; }
+
+    /**
+     * Releases the scratch space reserved by {@link #tryReserveScratch(long)}.
+     *
+     * @param size  The reserved size (in MB)
+     */
+    synchronized void releaseScratch(long size) {
+        this.reservedScratch = Math.max(0, this.reservedScratch - size);
+    }
+
+    @Override
+    public String toString() {
+        return this.name + ":" + this.os + ":" + this.slots;
+    }
+}
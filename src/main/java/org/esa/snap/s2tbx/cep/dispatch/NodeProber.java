@@ -0,0 +1,89 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.Constants;
+import org.esa.snap.s2tbx.cep.executors.Executor;
+import org.esa.snap.s2tbx.cep.executors.ExecutorType;
+import org.esa.snap.s2tbx.cep.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Probes the slave nodes over SSH (or directly, for the local host) for their core count, load average,
+ * available memory and free scratch space. Only Linux nodes can be probed.
+ *
+ * @author Cosmin Cara
+ */
+public class NodeProber {
+
+    private static final String PROBE_COMMAND =
+            "echo cores=$(nproc); " +
+            "echo load=$(cut -d' ' -f1 /proc/loadavg); " +
+            "echo total=$(awk '/MemTotal/ {print $2}' /proc/meminfo); " +
+            "echo mem=$(awk '/MemAvailable/ {print $2}' /proc/meminfo); " +
+            "echo disk=$(df -Pk %s | awk 'NR==2 {print $4}')";
+
+    private final String user;
+    private final String password;
+    private final String scratchFolder;
+    private final Logger.CustomLogger logger;
+
+    /**
+     * @param user          The user used to connect to the nodes
+     * @param password      The password of the user
+     * @param scratchFolder The folder whose free space is reported
+     */
+    public NodeProber(String user, String password, String scratchFolder) {
+        this.user = user;
+        this.password = password;
+        this.scratchFolder = scratchFolder;
+        this.logger = Logger.getRootLogger();
+    }
+
+    /**
+     * Probes the given node.
+     *
+     * @param name  The node name
+     * @param os    The node operating system
+     *
+     * @return  The node status, or <code>null</code> if the node could not be probed
+     */
+    public NodeStatus probe(String name, String os) {
+        if (!Constants.CONST_LINUX.equals(os)) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+        try {
+            Executor executor = Executor.create(Node.isLocal(name) ? ExecutorType.LOCAL : ExecutorType.SSH2, name,
+                                                Collections.singletonList(String.format(PROBE_COMMAND, this.scratchFolder)), null);
+            executor.setUser(this.user);
+            executor.setPassword(this.password);
+            if (executor.execute(lines, false) != 0) {
+                logger.warn("[[%s]] Probe failed: %s", name, String.join(" ", lines));
+                return null;
+            }
+        } catch (Exception e) {
+            logger.warn("[[%s]] Probe failed: %s", name, e.getMessage());
+            return null;
+        }
+        return NodeStatus.parse(lines);
+    }
+
+    /**
+     * Probes the given nodes in parallel.
+     *
+     * @param nodes     The node names and their operating systems
+     *
+     * @return  The statuses of the nodes that could be probed
+     */
+    public Map<String, NodeStatus> probe(Map<String, String> nodes) {
+        Map<String, NodeStatus> statuses = new ConcurrentHashMap<>();
+        nodes.entrySet().parallelStream().forEach(node -> {
+            NodeStatus status = probe(node.getKey(), node.getValue());
+            if (status != null) {
+                statuses.put(node.getKey(), status);
+            }
+        });
+        return statuses;
+    }
+}
@@ -0,0 +1,101 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import java.util.List;
+
+/**
+ * The capacity and load of a slave node, as reported by a {@link NodeProber}.
+ *
+ * @author Cosmin Cara
+ */
+public class NodeStatus {
+
+    private final int cores;
+    private final double load;
+    private final long totalMemory;
+    private final long freeMemory;
+    private final long freeDisk;
+
+    public NodeStatus(int cores, double load, long totalMemory, long freeMemory, long freeDisk) {
+        this.cores = cores;
+        this.load = load;
+        this.totalMemory = totalMemory;
+        this.freeMemory = freeMemory;
+        this.freeDisk = freeDisk;
+    }
+
+    /**
+     * Returns the number of processor cores.
+     */
+    public int getCores() { return this.cores; }
+
+    /**
+     * Returns the load average over the last minute.
+     */
+    public double getLoad() { return this.load; }
+
+    /**
+     * Returns the physical memory (in MB).
+     */
+    public long getTotalMemory() { return this.totalMemory; }
+
+    /**
+     * Returns the available memory (in MB).
+     */
+    public long getFreeMemory() { return this.freeMemory; }
+
+    /**
+     * Returns the free space (in MB) of the scratch folder.
+     */
+    public long getFreeDisk() { return this.freeDisk; }
+
+    /**
+     * Parses the output of the probe command, made of <code>key=value</code> lines.
+     *
+     * @param lines     The output lines
+     *
+     * @return  The status, or <code>null</code> if the core count is missing
+     */
+    static NodeStatus parse(List<String> lines) {
+        int cores = 0;
+        double load = 0;
+        long total = Long.MAX_VALUE;
+        long memory = Long.MAX_VALUE;
+        long disk = Long.MAX_VALUE;
+        for (String line : lines) {
+            int idx = line.indexOf('=');
+            if (idx > 0) {
+                String value = line.substring(idx + 1).trim();
+                try {
+                    switch (line.substring(0, idx).trim()) {
+                        case "cores":
+                            cores = Integer.parseInt(value);
+                            break;
+                        case "load":
+                            load = Double.parseDouble(value);
+                            break;
+                        case "total":
+                            total = Long.parseLong(value) / 1024;
+                            break;
+                        case "mem":
+                            memory = Long.parseLong(value) / 1024;
+                            break;
+                        case "disk":
+                            disk = Long.parseLong(value) / 1024;
+                            break;
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return cores > 0 ? new NodeStatus(cores, load, total, memory, disk) : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s cores, load %.2f, %sMB memory, %sMB free memory, %sMB free disk",
+                             this.cores, this.load,
+                             this.totalMemory == Long.MAX_VALUE ? "?" : String.valueOf(this.totalMemory),
+                             this.freeMemory == Long.MAX_VALUE ? "?" : String.valueOf(this.freeMemory),
+                             this.freeDisk == Long.MAX_VALUE ? "?" : String.valueOf(this.freeDisk));
+    }
+}
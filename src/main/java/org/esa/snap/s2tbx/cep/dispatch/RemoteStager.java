@@ -0,0 +1,154 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.executors.Executor;
+import org.esa.snap.s2tbx.cep.executors.ExecutorType;
+import org.esa.snap.s2tbx.cep.util.Logger;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base of the stagers whose job attempts write their results in their own folder under the scratch folder
+ * of the (Linux) node, the results being verified once copied. When the jobs write no result file
+ * (as Sen2Cor, which writes its product next to its input), nothing is copied back.
+ *
+ * @author Cosmin Cara
+ */
+public abstract class RemoteStager implements Stager {
+
+    private static final String STAGING_FOLDER = "s2cep";
+    protected static final String PARTIAL_SUFFIX = ".part";
+
+    protected final String remoteFolder;
+    protected final String user;
+    protected final String password;
+    protected final Logger.CustomLogger logger;
+    private volatile boolean resultExpected = true;
+
+    /**
+     * @param scratchFolder     The scratch folder of the nodes
+     * @param user              The SSH user
+     * @param password          The SSH password
+     */
+    protected RemoteStager(String scratchFolder, String user, String password) {
+        this.remoteFolder = scratchFolder + "/" + STAGING_FOLDER;
+        this.user = user;
+        this.password = password;
+        this.logger = Logger.getRootLogger();
+    }
+
+    /**
+     * Tells if the jobs write a result file to be copied back (<code>true</code> by default).
+     */
+    public void setResultExpected(boolean resultExpected) {
+        this.resultExpected = resultExpected;
+    }
+
+    @Override
+    public void stageOut(Job job, Node node, int attempt) throws IOException {
+        if (this.resultExpected) {
+            copyResult(job, node, attempt);
+        }
+    }
+
+    /**
+     * Copies the result of the given job attempt from the node to the output folder.
+     */
+    protected abstract void copyResult(Job job, Node node, int attempt) throws IOException;
+
+    @Override
+    public String getRemoteResult(Job job, int attempt) {
+        return getRemoteDir(job, attempt) + "/" + job.getResultName(attempt) + ".tif";
+    }
+
+    @Override
+    public void cleanup(Job job, Node node, int attempt) {
+        try {
+            execute(node, "rm -rf " + quote(getRemoteDir(job, attempt)));
+        } catch (IOException e) {
+            logger.warn("Job %s: cannot clean up [[%s]]: %s", job, node.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the folder of the given job attempt on the node.
+     */
+    protected String getRemoteDir(Job job, int attempt) {
+        return this.remoteFolder + "/" + job.getResultName(attempt);
+    }
+
+    /**
+     * Executes the given shell command on the node.
+     *
+     * @return  The lines printed by the command
+     *
+     * @throws IOException  If the command could not be executed or failed
+     */
+    protected List<String> execute(Node node, String command) throws IOException {
+        List<String> lines = new ArrayList<>();
+        int returnCode;
+        try {
+            Executor executor = Executor.create(node.isLocal() ? ExecutorType.LOCAL : ExecutorType.SSH2, node.getName(),
+                                                new ArrayList<>(Collections.singletonList(command)), null);
+            executor.setUser(this.user);
+            executor.setPassword(this.password);
+            returnCode = executor.execute(lines, false);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (returnCode != 0) {
+            throw new IOException(String.format("[%s] %s failed with code %s: %s",
+                                                node.getName(), command, returnCode, String.join(" ", lines)));
+        }
+        return lines;
+    }
+
+    /**
+     * Computes the SHA-256 checksums of the given files on the node.
+     *
+     * @return  The checksums, in the order of the files
+     */
+    protected List<String> checksums(Node node, String... files) throws IOException {
+        StringBuilder command = new StringBuilder("sha256sum");
+        for (String file : files) {
+            command.append(" ").append(quote(file));
+        }
+        List<String> checksums = new ArrayList<>();
+        for (String line : execute(node, command.toString())) {
+            String[] tokens = line.trim().split("\\s+", 2);
+            if (tokens.length == 2 && tokens[0].length() == 64) {
+                checksums.add(tokens[0].replace("\\", ""));
+            }
+        }
+        if (checksums.size() != files.length) {
+            throw new IOException(String.format("[%s] cannot compute the checksums of %s", node.getName(), String.join(" ", files)));
+        }
+        return checksums;
+    }
+
+    protected static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    protected static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    protected static String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,17 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import java.nio.file.Path;
+
+/**
+ * Resolves the location of a slave result, as seen from the master node.
+ *
+ * @author Cosmin Cara
+ */
+public interface ResultResolver {
+    /**
+     * Returns the path of the result having the given name.
+     *
+     * @param resultName    The name (without extension) of the result, as returned by {@link Job#getResultName()}
+     */
+    Path resolve(String resultName);
+}
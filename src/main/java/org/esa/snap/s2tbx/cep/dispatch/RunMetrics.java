@@ -0,0 +1,347 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.util.Logger;
+import org.esa.snap.s2tbx.cep.util.Utilities;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of a run, aggregated per node and per operator chain.
+ * The time of each phase of a job (queue wait, connection, remote runtime, latency of the output on the master)
+ * and of the master job is recorded in a histogram, from which the median, the 95th percentile and the maximum
+ * are reported, together with the throughput and the utilisation of each node.
+ * The report is written as JSON and, optionally, in the Prometheus text format, periodically and at the end of the run.
+ *
+ * @author Cosmin Cara
+ */
+public class RunMetrics implements JobListener {
+
+    public static final String PHASE_QUEUE_WAIT = "queue_wait";
+    public static final String PHASE_CONNECT = "connect";
+    public static final String PHASE_STAGE_IN = "stage_in";
+    public static final String PHASE_RUNTIME = "runtime";
+    public static final String PHASE_STAGE_OUT = "stage_out";
+    public static final String PHASE_OUTPUT_LATENCY = "output_latency";
+    public static final String PHASE_MASTER = "master";
+
+    private static final String MASTER_NODE = "master";
+
+    private final String slaveChain;
+    private final String masterChain;
+    private final Path reportFile;
+    private final long started;
+    private final Map<String, Map<String, Histogram>> nodeHistograms;
+    private final Map<String, Map<String, Histogram>> chainHistograms;
+    private final Map<String, Integer> nodeSlots;
+    private final Map<String, Long> busyTimes;
+    private final Logger.CustomLogger logger;
+    private Path prometheusFile;
+    private ScheduledExecutorService scheduler;
+    private int done;
+    private int failed;
+
+    /**
+     * Creates the metrics of a run.
+     *
+     * @param slaveChain    The operator chain executed by the slaves
+     * @param masterChain   The operator chain executed by the master
+     * @param reportFile    The file of the JSON report
+     */
+    public RunMetrics(String slaveChain, String masterChain, Path reportFile) {
+        this.slaveChain = slaveChain;
+        this.masterChain = masterChain;
+        this.reportFile = reportFile;
+        this.started = System.currentTimeMillis();
+        this.nodeHistograms = new TreeMap<>();
+        this.chainHistograms = new LinkedHashMap<>();
+        this.nodeSlots = new TreeMap<>();
+        this.busyTimes = new HashMap<>();
+        this.logger = Logger.getRootLogger();
+    }
+
+    /**
+     * Sets the file to which the metrics are also written in the Prometheus text format.
+     */
+    public void setPrometheusFile(Path prometheusFile) {
+        this.prometheusFile = prometheusFile;
+    }
+
+    /**
+     * Declares a node and its number of slots, used to compute the utilisation of the node.
+     */
+    public synchronized void addNode(String node, int slots) {
+        this.nodeSlots.put(node, slots);
+    }
+
+    /**
+     * Records the time spent by a slave job in the given phase.
+     *
+     * @param phase     The phase
+     * @param node      The node that executed the job
+     * @param millis    The time (in milliseconds)
+     */
+    public synchronized void record(String phase, String node, long millis) {
+        histogram(this.nodeHistograms, node, phase).add(millis);
+        histogram(this.chainHistograms, this.slaveChain, phase).add(millis);
+    }
+
+    /**
+     * Records the time spent by the master job.
+     *
+     * @param millis    The time (in milliseconds)
+     */
+    public synchronized void recordMaster(long millis) {
+        histogram(this.nodeHistograms, MASTER_NODE, PHASE_MASTER).add(millis);
+        histogram(this.chainHistograms, this.masterChain, PHASE_MASTER).add(millis);
+    }
+
+    /**
+     * Adds the time a slot of the given node was busy.
+     *
+     * @param node      The node
+     * @param millis    The time (in milliseconds)
+     */
+    public synchronized void addBusyTime(String node, long millis) {
+        this.busyTimes.merge(node, millis, Long::sum);
+    }
+
+    /**
+     * Returns the given percentile of the time (in milliseconds) spent by the slave jobs in the given phase.
+     *
+     * @param phase     The phase
+     * @param fraction  The percentile, as a fraction (e.g. 0.95)
+     */
+    public synchronized long getPercentile(String phase, double fraction) {
+        Map<String, Histogram> phases = this.chainHistograms.get(this.slaveChain);
+        Histogram histogram = phases != null ? phases.get(phase) : null;
+        return histogram != null ? histogram.percentile(fraction) : 0;
+    }
+
+    /**
+     * Returns the fraction of the time the slots of all the nodes were busy.
+     */
+    public synchronized double getUtilisation() {
+        long elapsed = System.currentTimeMillis() - this.started;
+        int slots = this.nodeSlots.values().stream().mapToInt(Integer::intValue).sum();
+        if (slots == 0 || elapsed <= 0) {
+            return 0;
+        }
+        long busy = this.busyTimes.values().stream().mapToLong(Long::longValue).sum();
+        return Math.min(1.0, busy / ((double) slots * elapsed));
+    }
+
+    @Override
+    public synchronized void stateChanged(Job job) {
+        if (job.getState() == JobState.DONE) {
+            this.done++;
+        } else if (job.getState() == JobState.FAILED) {
+            this.failed++;
+        }
+    }
+
+    /**
+     * Writes the report every <code>interval</code> seconds, until {@link #stop()} is invoked.
+     */
+    public void start(long interval) {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Utilities.newThreadFactory("metrics"));
+        this.scheduler.scheduleWithFixedDelay(this::write, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic writing and writes the final report.
+     */
+    public void stop() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        write();
+    }
+
+    /**
+     * Writes the report (and, if set, the Prometheus file). The files are replaced atomically,
+     * so that a reader never sees a partial report.
+     */
+    public synchronized void write() {
+        long now = System.currentTimeMillis();
+        try {
+            replace(this.reportFile, toJson(now));
+            if (this.prometheusFile != null) {
+                replace(this.prometheusFile, toPrometheus(now));
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot write the run metrics: %s", e.getMessage());
+        }
+    }
+
+    private String toJson(long now) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n");
+        builder.append("  \"started\": \"").append(Instant.ofEpochMilli(this.started)).append("\",\n");
+        builder.append("  \"updated\": \"").append(Instant.ofEpochMilli(now)).append("\",\n");
+        builder.append("  \"elapsedSeconds\": ").append(seconds(now - this.started)).append(",\n");
+        builder.append("  \"jobs\": { \"done\": ").append(this.done).append(", \"failed\": ").append(this.failed).append(" },\n");
+        builder.append("  \"throughputPerHour\": ").append(format(throughput(now))).append(",\n");
+        builder.append("  \"nodes\": {");
+        Set<String> nodes = new TreeSet<>(this.nodeSlots.keySet());
+        nodes.addAll(this.nodeHistograms.keySet());
+        String separator = "\n";
+        for (String node : nodes) {
+            builder.append(separator).append("    \"").append(escape(node)).append("\": {");
+            if (this.nodeSlots.containsKey(node)) {
+                builder.append(" \"slots\": ").append(this.nodeSlots.get(node))
+                       .append(", \"utilisation\": ").append(format(utilisation(node, now))).append(",");
+            }
+            builder.append(" \"phases\": ");
+            appendPhases(builder, this.nodeHistograms.get(node));
+            builder.append(" }");
+            separator = ",\n";
+        }
+        builder.append("\n  },\n");
+        builder.append("  \"chains\": {");
+        separator = "\n";
+        for (Map.Entry<String, Map<String, Histogram>> entry : this.chainHistograms.entrySet()) {
+            builder.append(separator).append("    \"").append(escape(entry.getKey())).append("\": { \"phases\": ");
+            appendPhases(builder, entry.getValue());
+            builder.append(" }");
+            separator = ",\n";
+        }
+        builder.append("\n  }\n");
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    private void appendPhases(StringBuilder builder, Map<String, Histogram> phases) {
+        builder.append("{");
+        if (phases != null) {
+            String separator = " ";
+            for (Map.Entry<String, Histogram> entry : phases.entrySet()) {
+                Histogram histogram = entry.getValue();
+                builder.append(separator).append("\"").append(entry.getKey()).append("\": {")
+                       .append(" \"count\": ").append(histogram.count())
+                       .append(", \"p50\": ").append(seconds(histogram.percentile(0.5)))
+                       .append(", \"p95\": ").append(seconds(histogram.percentile(0.95)))
+                       .append(", \"max\": ").append(seconds(histogram.max()))
+                       .append(", \"sum\": ").append(seconds(histogram.sum()))
+                       .append(" }");
+                separator = ", ";
+            }
+            builder.append(" ");
+        }
+        builder.append("}");
+    }
+
+    private String toPrometheus(long now) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# HELP s2cep_jobs_total Jobs completed, by state\n");
+        builder.append("# TYPE s2cep_jobs_total counter\n");
+        builder.append("s2cep_jobs_total{state=\"done\"} ").append(this.done).append("\n");
+        builder.append("s2cep_jobs_total{state=\"failed\"} ").append(this.failed).append("\n");
+        builder.append("# HELP s2cep_throughput_products_per_hour Products processed per hour since the start of the run\n");
+        builder.append("# TYPE s2cep_throughput_products_per_hour gauge\n");
+        builder.append("s2cep_throughput_products_per_hour ").append(format(throughput(now))).append("\n");
+        builder.append("# HELP s2cep_node_utilisation Fraction of the time the slots of a node were busy\n");
+        builder.append("# TYPE s2cep_node_utilisation gauge\n");
+        for (String node : this.nodeSlots.keySet()) {
+            builder.append("s2cep_node_utilisation{node=\"").append(escape(node)).append("\"} ")
+                   .append(format(utilisation(node, now))).append("\n");
+        }
+        appendSummary(builder, "s2cep_node_phase_seconds", "Time spent in each phase, by node", "node", this.nodeHistograms);
+        appendSummary(builder, "s2cep_chain_phase_seconds", "Time spent in each phase, by operator chain", "chain", this.chainHistograms);
+        return builder.toString();
+    }
+
+    private void appendSummary(StringBuilder builder, String name, String help, String label,
+                               Map<String, Map<String, Histogram>> histograms) {
+        builder.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        builder.append("# TYPE ").append(name).append(" summary\n");
+        for (Map.Entry<String, Map<String, Histogram>> entry : histograms.entrySet()) {
+            for (Map.Entry<String, Histogram> phase : entry.getValue().entrySet()) {
+                String labels = label + "=\"" + escape(entry.getKey()) + "\",phase=\"" + phase.getKey() + "\"";
+                Histogram histogram = phase.getValue();
+                builder.append(name).append("{").append(labels).append(",quantile=\"0.5\"} ")
+                       .append(seconds(histogram.percentile(0.5))).append("\n");
+                builder.append(name).append("{").append(labels).append(",quantile=\"0.95\"} ")
+                       .append(seconds(histogram.percentile(0.95))).append("\n");
+                builder.append(name).append("{").append(labels).append(",quantile=\"1\"} ")
+                       .append(seconds(histogram.max())).append("\n");
+                builder.append(name).append("_sum{").append(labels).append("} ").append(seconds(histogram.sum())).append("\n");
+                builder.append(name).append("_count{").append(labels).append("} ").append(histogram.count()).append("\n");
+            }
+        }
+    }
+
+    private double throughput(long now) {
+        long elapsed = Math.max(1, now - this.started);
+        return this.done * TimeUnit.HOURS.toMillis(1) / (double) elapsed;
+    }
+
+    private double utilisation(String node, long now) {
+        int slots = this.nodeSlots.getOrDefault(node, 0);
+        long elapsed = now - this.started;
+        if (slots == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, this.busyTimes.getOrDefault(node, 0L) / ((double) slots * elapsed));
+    }
+
+    private static Histogram histogram(Map<String, Map<String, Histogram>> histograms, String key, String phase) {
+        return histograms.computeIfAbsent(key, k -> new LinkedHashMap<>()).computeIfAbsent(phase, p -> new Histogram());
+    }
+
+    private static void replace(Path file, String contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String seconds(long millis) {
+        return String.format(Locale.ROOT, "%.3f", millis / 1000.0);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * The samples (in milliseconds) of a phase.
+     */
+    private static class Histogram {
+        private final List<Long> samples = new ArrayList<>();
+        private long sum;
+        private long max;
+
+        void add(long value) {
+            this.samples.add(value);
+            this.sum += value;
+            this.max = Math.max(this.max, value);
+        }
+
+        int count() { return this.samples.size(); }
+
+        long sum() { return this.sum; }
+
+        long max() { return this.max; }
+
+        long percentile(double fraction) {
+            if (this.samples.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(this.samples);
+            Collections.sort(sorted);
+            return sorted.get((int) Math.min(sorted.size() - 1, Math.ceil(fraction * sorted.size()) - 1));
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+import org.esa.snap.s2tbx.cep.Constants;
+import org.esa.snap.s2tbx.cep.executors.SSHSessionPool;
+import org.esa.snap.s2tbx.cep.util.Utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stages the jobs of the Linux nodes over SFTP, on the SSH sessions of the {@link SSHSessionPool}.
+ * The input product of a job attempt is copied in its own folder under the scratch folder of the node,
+ * where the result is also written, and the result is copied back in the master output folder.
+ * The files of a product are copied over several SFTP channels in parallel. A result is copied under a temporary name,
+ * and renamed once its checksum, computed while it is received, matches the one of the remote result, so that
+ * the master sees only complete results.
+ *
+ * @author Cosmin Cara
+ */
+public class SFTPStager extends RemoteStager {
+
+    private final Path inputFolder;
+    private final ResultResolver resultResolver;
+    private final int streams;
+    private final ExecutorService transfers;
+    private final Set<String> stagedFiles;
+
+    /**
+     * Creates a stager.
+     *
+     * @param inputFolder       The input folder, on the master node
+     * @param resultResolver    The resolver of the results, on the master node
+     * @param scratchFolder     The scratch folder of the nodes
+     * @param user              The SSH user
+     * @param password          The SSH password
+     * @param streams           The number of SFTP channels used in parallel to copy a product
+     */
+    public SFTPStager(Path inputFolder, ResultResolver resultResolver, String scratchFolder,
+                      String user, String password, int streams) {
+        super(scratchFolder, user, password);
+        this.inputFolder = inputFolder;
+        this.resultResolver = resultResolver;
+        this.streams = Math.max(1, streams);
+        this.transfers = Executors.newCachedThreadPool(Utilities.newThreadFactory("sftp"));
+        this.stagedFiles = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public boolean isStaged(Node node) {
+        return !node.isLocal() && Constants.CONST_LINUX.equals(node.getOs());
+    }
+
+    @Override
+    public String stageFile(Node node, Path file) throws IOException {
+        String remoteFile = this.remoteFolder + "/" + file.getFileName();
+        if (!this.stagedFiles.contains(node.getName() + remoteFile)) {
+            synchronized (this.stagedFiles) {
+                if (!this.stagedFiles.contains(node.getName() + remoteFile)) {
+                    withChannel(node.getName(), channel -> {
+                        makeDirectories(channel, this.remoteFolder);
+                        channel.put(file.toString(), remoteFile);
+                        return null;
+                    });
+                    this.stagedFiles.add(node.getName() + remoteFile);
+                }
+            }
+        }
+        return remoteFile;
+    }
+
+    @Override
+    public long getInputSize(Job job) throws IOException {
+        long size = 0;
+        try (Stream<Path> paths = Files.walk(this.inputFolder.resolve(job.getInput().getName(0)))) {
+            for (Path file : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                size += Files.size(file);
+            }
+        }
+        return size / (1024 * 1024);
+    }
+
+    @Override
+    public void stageIn(Job job, Node node, int attempt) throws IOException {
+        Path product = this.inputFolder.resolve(job.getInput().getName(0));
+        String remoteDir = getRemoteDir(job, attempt);
+        long start = System.currentTimeMillis();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(product)) {
+            files = paths.collect(Collectors.toList());
+        }
+        List<String> folders = files.stream()
+                .filter(Files::isDirectory)
+                .map(folder -> toRemote(remoteDir, folder))
+                .collect(Collectors.toList());
+        withChannel(node.getName(), channel -> {
+            makeDirectories(channel, remoteDir);
+            for (String folder : folders) {
+                makeDirectory(channel, folder);
+            }
+            return null;
+        });
+        Queue<Path> pending = files.stream()
+                .filter(Files::isRegularFile)
+                .collect(Collectors.toCollection(ConcurrentLinkedQueue::new));
+        long size = 0;
+        for (Path file : pending) {
+            size += Files.size(file);
+        }
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < Math.min(this.streams, pending.size()); i++) {
+            futures.add(this.transfers.submit(() -> withChannel(node.getName(), channel -> {
+                Path file;
+                while ((file = pending.poll()) != null) {
+                    channel.put(file.toString(), toRemote(remoteDir, file));
+                }
+                return null;
+            })));
+        }
+        await(futures);
+        logger.info("Job %s: %sMB staged to [[%s]] in %ss", job, size / (1024 * 1024), node.getName(),
+                    (System.currentTimeMillis() - start) / 1000);
+    }
+
+    @Override
+    public String getRemoteInput(Job job, int attempt) {
+        return getRemoteDir(job, attempt) + "/" + toRemote(job.getInput());
+    }
+
+    @Override
+    protected void copyResult(Job job, Node node, int attempt) throws IOException {
+        Path result = this.resultResolver.resolve(job.getResultName(attempt));
+        Path partial = result.resolveSibling(result.getFileName() + PARTIAL_SUFFIX);
+        String remoteResult = getRemoteResult(job, attempt);
+        MessageDigest digest = newDigest();
+        try (OutputStream stream = new DigestOutputStream(Files.newOutputStream(partial), digest)) {
+            withChannel(node.getName(), channel -> {
+                channel.get(remoteResult, stream);
+                return null;
+            });
+        }
+        if (!checksums(node, remoteResult).get(0).equals(toHex(digest.digest()))) {
+            Files.deleteIfExists(partial);
+            throw new IOException(String.format("The checksum of %s does not match the one of [%s] %s",
+                                                partial, node.getName(), remoteResult));
+        }
+        Files.move(partial, result, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String toRemote(String remoteDir, Path file) {
+        return remoteDir + "/" + toRemote(this.inputFolder.relativize(file));
+    }
+
+    private static String toRemote(Path relativePath) {
+        StringJoiner joiner = new StringJoiner("/");
+        relativePath.forEach(name -> joiner.add(name.toString()));
+        return joiner.toString();
+    }
+
+    private static void makeDirectories(ChannelSftp channel, String folder) throws SftpException {
+        StringBuilder path = new StringBuilder();
+        for (String name : folder.split("/")) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            path.append("/").append(name);
+            makeDirectory(channel, path.toString());
+        }
+    }
+
+    /**
+     * Creates the given folder, unless it exists (left, for example, by an interrupted run).
+     */
+    private static void makeDirectory(ChannelSftp channel, String folder) throws SftpException {
+        try {
+            channel.stat(folder);
+        } catch (SftpException e) {
+            channel.mkdir(folder);
+        }
+    }
+
+    private static void await(List<Future<Void>> futures) throws IOException {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private <T> T withChannel(String host, SftpTask<T> task) throws IOException {
+        Session session = null;
+        ChannelSftp channel = null;
+        try {
+            session = SSHSessionPool.getInstance().acquire(host, this.user, this.password);
+            channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect();
+            return task.run(channel);
+        } catch (JSchException | SftpException e) {
+            throw new IOException(String.format("[%s] SFTP transfer failed: %s", host, e.getMessage()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            if (channel != null) {
+                channel.disconnect();
+            }
+            SSHSessionPool.getInstance().release(session);
+        }
+    }
+
+    private interface SftpTask<T> {
+        T run(ChannelSftp channel) throws SftpException, IOException;
+    }
+}
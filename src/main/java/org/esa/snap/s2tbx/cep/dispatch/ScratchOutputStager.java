@@ -0,0 +1,85 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.Constants;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Makes the jobs of the Linux nodes write their results to the scratch folder of the node, instead of writing them
+ * directly to the shared folder, where the many small writes of a GeoTIFF writer are slow. Once a job succeeded,
+ * its result is copied in one sequential transfer to the shared output folder, under a temporary name, and renamed
+ * once the checksum of the copy matches the one of the local result, so that the master sees only complete and
+ * intact results. The copy, the check and the rename are done by a single command on the node.
+ * The inputs are still read from the shared folder.
+ *
+ * @author Cosmin Cara
+ */
+public class ScratchOutputStager extends RemoteStager {
+
+    private final String sharedFolder;
+    private final String inputFolder;
+    private final String outputFolder;
+
+    /**
+     * Creates a stager.
+     *
+     * @param sharedFolder      The shared folder, as mounted on the nodes
+     * @param inputFolder       The input folder, as seen from the nodes
+     * @param outputFolder      The output folder, as seen from the nodes
+     * @param scratchFolder     The scratch folder of the nodes
+     * @param user              The SSH user
+     * @param password          The SSH password
+     */
+    public ScratchOutputStager(String sharedFolder, String inputFolder, String outputFolder, String scratchFolder,
+                               String user, String password) {
+        super(scratchFolder, user, password);
+        this.sharedFolder = sharedFolder;
+        this.inputFolder = inputFolder;
+        this.outputFolder = outputFolder;
+    }
+
+    @Override
+    public boolean isStaged(Node node) {
+        return Constants.CONST_LINUX.equals(node.getOs());
+    }
+
+    @Override
+    public String stageFile(Node node, Path file) {
+        return this.sharedFolder + "/" + file.getFileName();
+    }
+
+    @Override
+    public long getInputSize(Job job) {
+        return 0;
+    }
+
+    /**
+     * Creates the folder of the job attempt on the node, the input being read from the shared folder.
+     */
+    @Override
+    public void stageIn(Job job, Node node, int attempt) throws IOException {
+        execute(node, "mkdir -p " + quote(getRemoteDir(job, attempt)));
+    }
+
+    @Override
+    public String getRemoteInput(Job job, int attempt) {
+        StringBuilder path = new StringBuilder(this.inputFolder);
+        job.getInput().forEach(name -> path.append("/").append(name));
+        return path.toString();
+    }
+
+    @Override
+    protected void copyResult(Job job, Node node, int attempt) throws IOException {
+        String localResult = quote(getRemoteResult(job, attempt));
+        String result = this.outputFolder + "/" + job.getResultName(attempt) + ".tif";
+        String partial = quote(result + PARTIAL_SUFFIX);
+        long start = System.currentTimeMillis();
+        execute(node, "cp -f " + localResult + " " + partial +
+                      " && [ \"$(sha256sum < " + localResult + ")\" = \"$(sha256sum < " + partial + ")\" ]" +
+                      " && mv -f " + partial + " " + quote(result) +
+                      " || { rm -f " + partial + "; exit 1; }");
+        logger.info("Job %s: result copied from the scratch folder of [[%s]] in %ss", job, node.getName(),
+                    (System.currentTimeMillis() - start) / 1000);
+    }
+}
@@ -0,0 +1,57 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Copies the inputs of the jobs to the nodes that execute them, and their results back to the master,
+ * for the nodes that don't see the master shared folder.
+ *
+ * @author Cosmin Cara
+ */
+public interface Stager {
+    /**
+     * Tells if the jobs executed on the given node are staged.
+     */
+    boolean isStaged(Node node);
+
+    /**
+     * Copies the given file (such as a graph) to the staging folder of the node, unless already copied.
+     *
+     * @param node  The node
+     * @param file  The file, on the master node
+     *
+     * @return  The path of the file on the node
+     */
+    String stageFile(Node node, Path file) throws IOException;
+
+    /**
+     * Returns the size (in MB) of the input product of the given job.
+     */
+    long getInputSize(Job job) throws IOException;
+
+    /**
+     * Copies the input product of the given job attempt to the node.
+     */
+    void stageIn(Job job, Node node, int attempt) throws IOException;
+
+    /**
+     * Returns the path, on the node, of the input of the given job attempt.
+     */
+    String getRemoteInput(Job job, int attempt);
+
+    /**
+     * Returns the path, on the node, of the result of the given job attempt.
+     */
+    String getRemoteResult(Job job, int attempt);
+
+    /**
+     * Copies the result of the given job attempt back to the master.
+     */
+    void stageOut(Job job, Node node, int attempt) throws IOException;
+
+    /**
+     * Removes the files of the given job attempt from the node.
+     */
+    void cleanup(Job job, Node node, int attempt);
+}
@@ -0,0 +1,105 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import org.esa.snap.s2tbx.cep.Constants;
+import org.esa.snap.s2tbx.cep.agent.AgentServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Executes a command through the {@link AgentServer} running on the target node.
+ * Stopping the execution closes the connection, which makes the agent kill the command.
+ *
+ * @author Cosmin Cara
+ */
+public class AgentExecutor extends Executor {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private int port = Constants.DEFAULT_AGENT_PORT;
+    private String token;
+    private volatile Socket socket;
+    private volatile int exitCode;
+
+    public AgentExecutor(String host, List<String> args, boolean asSU, CountDownLatch sharedCounter) {
+        super(host, args, asSU, sharedCounter);
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    @Override
+    public int execute(List<String> outLines, boolean logMessages) throws IOException {
+        if (asSuperUser) {
+            throw new UnsupportedOperationException("Mode not permitted");
+        }
+        this.exitCode = -1;
+        try (Socket socket = new Socket()) {
+            this.socket = socket;
+            if (isStopped()) {
+                return this.exitCode;
+            }
+            String cmdLine = String.join(" ", arguments);
+            logger.info("[[" + host + "]] " + cmdLine);
+            long connectStart = System.currentTimeMillis();
+            socket.connect(new InetSocketAddress(this.host, this.port), CONNECT_TIMEOUT);
+            connectTime = System.currentTimeMillis() - connectStart;
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write((this.token != null ? this.token : "") + "\n" + cmdLine + "\n");
+            writer.flush();
+            //consume the output until the agent closes the connection
+            drain(socket.getInputStream(), outLines, logMessages);
+        } catch (IOException e) {
+            if (!isStopped()) {
+                logger.error("[[%s]] failed: %s", host, e.getMessage());
+                wasCancelled = true;
+                throw e;
+            }
+        } finally {
+            this.socket = null;
+        }
+        return this.exitCode;
+    }
+
+    /**
+     * Signals the stop of the execution and closes the connection to the agent.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    protected boolean accept(String line) {
+        if (line.startsWith(AgentServer.EXIT_MARKER)) {
+            try {
+                this.exitCode = Integer.parseInt(line.substring(AgentServer.EXIT_MARKER.length()).trim());
+            } catch (NumberFormatException ignored) {
+            }
+            return false;
+        }
+        if (line.startsWith(AgentServer.PROGRESS_MARKER)) {
+            try {
+                progress(Integer.parseInt(line.substring(AgentServer.PROGRESS_MARKER.length()).trim()));
+            } catch (NumberFormatException ignored) {
+            }
+            return false;
+        }
+        return true;
+    }
+}
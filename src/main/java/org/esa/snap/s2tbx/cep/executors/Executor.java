@@ -3,10 +3,14 @@ package org.esa.snap.s2tbx.cep.executors;
 import org.esa.snap.s2tbx.cep.util.Logger;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.function.IntConsumer;
 
 /**
  * Base class for process executors
@@ -15,6 +19,12 @@ import java.util.concurrent.CountDownLatch;
  */
 public abstract class Executor implements Runnable {
 
+    /**
+     * The maximum number of output lines kept in the holder passed to {@link #execute(List, boolean)}.
+     * When exceeded, the oldest lines are discarded.
+     */
+    protected static final int MAX_OUTPUT_LINES = 1000;
+
     protected String host;
     protected String user;
     protected String password;
@@ -22,9 +32,13 @@ public abstract class Executor implements Runnable {
     protected volatile boolean wasCancelled;
     protected List<String> arguments;
     protected Logger.CustomLogger logger;
+    protected Logger.CustomLogger outputLogger;
     protected volatile int retCode = Integer.MAX_VALUE;
     protected boolean asSuperUser;
     protected CountDownLatch counter;
+    protected long connectTime;
+    protected long executionTime;
+    protected volatile IntConsumer progressListener;
 
     public static Executor create(ExecutorType type, String host, List<String> arguments, CountDownLatch synchronisationCounter) {
         return create(type, host, arguments, false, synchronisationCounter, "exec");
@@ -43,6 +57,15 @@ public abstract class Executor implements Runnable {
             case SSH2:
                 executor = new SSHExecutor(host, arguments, asSuperUser, synchronisationCounter, mode);
                 break;
+            case LOCAL:
+                executor = new LocalExecutor(host, arguments, asSuperUser, synchronisationCounter);
+                break;
+            case AGENT:
+                executor = new AgentExecutor(host, arguments, asSuperUser, synchronisationCounter);
+                break;
+            case SIMULATED:
+                executor = new SimulatedExecutor(host, arguments, asSuperUser, synchronisationCounter);
+                break;
         }
         return executor;
     }
@@ -62,6 +85,7 @@ public abstract class Executor implements Runnable {
         this.counter = sharedCounter;
         this.asSuperUser = asSU;
         logger = Logger.getRootLogger();
+        outputLogger = logger;
     }
 
     /**
@@ -71,6 +95,16 @@ public abstract class Executor implements Runnable {
 
     public String getHost() { return this.host; }
 
+    /**
+     * Returns the time (in milliseconds) needed to connect to the execution node.
+     */
+    public long getConnectTime() { return this.connectTime; }
+
+    /**
+     * Returns the duration (in milliseconds) of the last {@link #run()}, including the connection.
+     */
+    public long getExecutionTime() { return this.executionTime; }
+
     /**
      * Signals the stop of the execution.
      */
@@ -95,6 +129,20 @@ public abstract class Executor implements Runnable {
         this.password = password;
     }
 
+    /**
+     * Sets the listener of the progress percentages (such as the ones printed by gpt) found in the process output.
+     */
+    public void setProgressListener(IntConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets the logger of the process output. By default, the output goes to the root logger.
+     */
+    public void setOutputLogger(Logger.CustomLogger outputLogger) {
+        this.outputLogger = outputLogger;
+    }
+
     @Override
     public void run() {
         Instant start = Instant.now();
@@ -110,6 +158,7 @@ public abstract class Executor implements Runnable {
             logger.error("[[%s]] produced an error: %s", host, e.getMessage());
         } finally {
             Instant end = Instant.now();
+            executionTime = Duration.between(start, end).toMillis();
             long seconds = Duration.between(start, end).getSeconds();
             long hours = seconds / 3600;
             seconds -= hours * 3600;
@@ -130,4 +179,112 @@ public abstract class Executor implements Runnable {
      * @throws InterruptedException
      */
     public abstract int execute(List<String> outLines, boolean logMessages) throws Exception;
+
+    /**
+     * Consumes the given output stream line by line until its end is reached.
+     * The calling thread blocks while no output is available, hence it doesn't consume CPU
+     * while the process is running.
+     * Since gpt prints its progress (<code>....10%....20%</code>) on a single line, the progress percentages
+     * are reported as soon as they are read, before the end of the line.
+     *
+     * @param stream        The process output
+     * @param outLines      The (optional) holder for output messages
+     * @param logMessages   If <code>true</code>, the output will be logged
+     *
+     * @throws IOException
+     */
+    protected void drain(InputStream stream, List<String> outLines, boolean logMessages) throws IOException {
+        Reader outReader = new InputStreamReader(stream);
+        StringBuilder line = new StringBuilder();
+        char[] buffer = new char[4096];
+        int count;
+        try {
+            while ((count = outReader.read(buffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    char c = buffer[i];
+                    if (c == '\n' || c == '\r') {
+                        consume(line.toString(), outLines, logMessages);
+                        line.setLength(0);
+                    } else {
+                        line.append(c);
+                        if (c == '%') {
+                            parseProgress(line);
+                        }
+                    }
+                }
+            }
+            consume(line.toString(), outLines, logMessages);
+        } catch (IOException e) {
+            // the stream is closed when the execution is stopped
+            if (!isStopped()) {
+                throw e;
+            }
+        }
+    }
+
+    private void consume(String line, List<String> outLines, boolean logMessages) {
+        if (!"".equals(line.trim()) && accept(line)) {
+            if (outLines != null) {
+                if (outLines.size() >= MAX_OUTPUT_LINES) {
+                    outLines.remove(0);
+                }
+                outLines.add(line);
+            }
+            if (logMessages) {
+                this.outputLogger.info(line);
+            }
+        }
+    }
+
+    /**
+     * Reports the percentage ending the given (partial) line, if the line is a gpt progress line, that is
+     * made only of percentages preceded by dots (<code>....10%....20%</code>).
+     */
+    private void parseProgress(CharSequence line) {
+        int end = line.length() - 1;
+        int start = end;
+        while (start > 0 && end - start < 3 && Character.isDigit(line.charAt(start - 1))) {
+            start--;
+        }
+        if (start < end && start > 0 && line.charAt(start - 1) == '.' && isProgressLine(line, start - 1)) {
+            int percent = Integer.parseInt(line.subSequence(start, end).toString());
+            if (percent <= 100) {
+                progress(percent);
+            }
+        }
+    }
+
+    private static boolean isProgressLine(CharSequence line, int end) {
+        if (line.charAt(0) != '.') {
+            return false;
+        }
+        for (int i = 1; i < end; i++) {
+            char c = line.charAt(i);
+            if (c != '.' && c != '%' && !Character.isDigit(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports a progress percentage to the progress listener, if any.
+     *
+     * @param percent   The progress percentage
+     */
+    protected void progress(int percent) {
+        IntConsumer listener = this.progressListener;
+        if (listener != null) {
+            listener.accept(percent);
+        }
+    }
+
+    /**
+     * Tells if an output line should be kept. By default, all the lines are kept.
+     *
+     * @param line  The output line
+     */
+    protected boolean accept(String line) {
+        return true;
+    }
 }
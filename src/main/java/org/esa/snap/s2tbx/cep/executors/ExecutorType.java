@@ -11,5 +11,17 @@ public enum ExecutorType {
     /**
      * SSH2 executor.
      */
-    SSH2
+    SSH2,
+    /**
+     * Executor delegating to the agent resident on the node.
+     */
+    AGENT,
+    /**
+     * Executor of shell command lines on the local host.
+     */
+    LOCAL,
+    /**
+     * Executor simulating the jobs, without executing anything.
+     */
+    SIMULATED
 }
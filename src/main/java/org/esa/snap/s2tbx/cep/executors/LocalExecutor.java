@@ -0,0 +1,77 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Executes a command line on the local host, through the system shell.
+ * On Unix-like systems, the shell is started in a new session, so that stopping the execution
+ * kills the whole process group of the command (e.g. the JVM started by the gpt script).
+ *
+ * @author Cosmin Cara
+ */
+public class LocalExecutor extends ProcessExecutor {
+
+    private static final String PID_MARKER = "@@PID@@";
+    private static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("windows");
+    private volatile int pid;
+
+    public LocalExecutor(String host, List<String> args, boolean asSU, CountDownLatch sharedCounter) {
+        super(host, shellCommand(String.join(" ", args)), asSU, sharedCounter);
+    }
+
+    @Override
+    public int execute(List<String> outLines, boolean logMessages) throws IOException, InterruptedException {
+        if (asSuperUser) {
+            throw new UnsupportedOperationException("Mode not permitted");
+        }
+        return super.execute(outLines, logMessages);
+    }
+
+    /**
+     * Signals the stop of the execution and kills the process group of the command.
+     */
+    @Override
+    public void stop() {
+        int pid = this.pid;
+        if (pid > 0 && !isStopped()) {
+            try {
+                new ProcessBuilder("kill", "-9", "--", "-" + String.valueOf(pid)).start().waitFor();
+            } catch (IOException e) {
+                logger.warn("[[%s]] Cannot kill process group %s: %s", host, pid, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        super.stop();
+    }
+
+    @Override
+    protected boolean accept(String line) {
+        if (this.pid == 0 && line.startsWith(PID_MARKER)) {
+            try {
+                this.pid = Integer.parseInt(line.substring(PID_MARKER.length()).trim());
+            } catch (NumberFormatException ignored) {
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static List<String> shellCommand(String cmdLine) {
+        List<String> command = new ArrayList<>();
+        if (IS_WINDOWS) {
+            command.add("cmd");
+            command.add("/c");
+            command.add(cmdLine);
+        } else {
+            command.add("setsid");
+            command.add("/bin/sh");
+            command.add("-c");
+            command.add("echo " + PID_MARKER + "$$; " + cmdLine);
+        }
+        return command;
+    }
+}
@@ -11,6 +11,8 @@ import java.util.concurrent.CountDownLatch;
  */
 public class ProcessExecutor extends Executor {
 
+    private volatile Process process;
+
     public ProcessExecutor(String nodeName, List<String> args, boolean asSU, CountDownLatch sharedCounter) {
         super(nodeName, args, asSU, sharedCounter);
     }
@@ -18,7 +20,6 @@ public class ProcessExecutor extends Executor {
     @Override
     public int execute(List<String> outLines, boolean logMessages) throws IOException, InterruptedException {
         Process process = null;
-        BufferedReader outReader = null;
         int ret = -1;
         try {
             logger.info("[[" + host + "]] " + String.join(" ", arguments));
@@ -28,40 +29,21 @@ public class ProcessExecutor extends Executor {
             pb.environment().putAll(System.getenv());
             //start the process
             process = pb.start();
-            //get the process output
-            InputStream inputStream = process.getInputStream();
-            outReader = new BufferedReader(new InputStreamReader(inputStream));
-            while (!isStopped()) {
-                while (!isStopped && outReader.ready()) {
-                    //read the process output line by line
-                    String line = outReader.readLine();
-                    //consume the line if possible
-                    if (line != null && !"".equals(line.trim())) {
-                        if (outLines != null) {
-                            outLines.add(line);
-                        }
-                        if (logMessages) {
-                            this.logger.info(line);
-                        }
-                    }
-                }
-                // check if the project finished execution
-                if (!process.isAlive()) {
-                    //isStopped the loop
-                    stop();
-                } else {
-                    //yield the control to other threads
-                    Thread.yield();
-                }
+            this.process = process;
+            if (isStopped()) {
+                process.destroyForcibly();
             }
-            ret = process.exitValue();
+            //consume the process output until the process closes it
+            drain(process.getInputStream(), outLines, logMessages);
+            //wait for the process to end
+            ret = process.waitFor();
         } catch (IOException e) {
             logger.error("[[%s]] failed: %s", host, e.getMessage());
             wasCancelled = true;
             throw e;
         } finally {
             if (process != null) {
-                // if the process is still running, force it to isStopped
+                // if the process is still running, force it to stop
                 if (process.isAlive()) {
                     //destroy the process
                     process.destroyForcibly();
@@ -72,8 +54,6 @@ public class ProcessExecutor extends Executor {
                 } catch (InterruptedException ignored) {
                 }
 
-                //close the reader
-                closeStream(outReader);
                 //close all streams
                 closeStream(process.getErrorStream());
                 closeStream(process.getInputStream());
@@ -84,6 +64,18 @@ public class ProcessExecutor extends Executor {
         return ret;
     }
 
+    /**
+     * Signals the stop of the execution and kills the process, if it is running.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        Process process = this.process;
+        if (process != null && process.isAlive()) {
+            process.destroyForcibly();
+        }
+    }
+
     private void closeStream(Closeable stream) {
         if (stream != null) {
             try {
@@ -6,6 +6,7 @@ import org.esa.snap.s2tbx.cep.Constants;
 import java.io.*;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Executor class based on JSch. It uses SSH2 for remote host connection and command invocation.
@@ -14,7 +15,14 @@ import java.util.concurrent.CountDownLatch;
  */
 public class SSHExecutor extends Executor {
 
+    private static final long CLOSE_WAIT_INTERVAL = 20;
+    private static final String PID_MARKER = "@@PID@@";
+    private static final int KILL_CONNECT_TIMEOUT = 10000;
     private String mode;
+    private volatile Channel channel;
+    private boolean remoteKill;
+    private volatile int remotePid;
+    private final AtomicBoolean killSent = new AtomicBoolean();
 
     public SSHExecutor(String host, List<String> args, boolean asSU, CountDownLatch sharedCounter) {
         super(host, args, asSU, sharedCounter);
@@ -26,25 +34,29 @@ public class SSHExecutor extends Executor {
         this.mode = mode;
     }
 
+    /**
+     * When set, the remote command is started so that its process id is reported back, allowing the remote
+     * process (group) to be killed when the execution is stopped. Only supported for Unix-like remote hosts.
+     */
+    public void setRemoteKill(boolean remoteKill) {
+        this.remoteKill = remoteKill;
+    }
+
     @Override
     public int execute(List<String> outLines, boolean logMessages) throws IOException, InterruptedException, JSchException {
         if (!"exec".equalsIgnoreCase(this.mode) && asSuperUser) {
             throw new UnsupportedOperationException("Mode not permitted");
         }
-        BufferedReader outReader;
         int ret = -1;
         Session session = null;
         Channel channel = null;
         try {
             String cmdLine = String.join(" ", arguments);
-            JSch jSch = new JSch();
-            //jSch.setKnownHosts("D:\\known_hosts");
-            session = jSch.getSession(this.user, this.host, 22);
-            session.setUserInfo(new UserInfo(this.password));
-            session.setPassword(password.getBytes());
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.connect();
+            long connectStart = System.currentTimeMillis();
+            session = SSHSessionPool.getInstance().acquire(this.host, this.user, this.password);
+            connectTime = System.currentTimeMillis() - connectStart;
             channel = session.openChannel(this.mode);
+            this.channel = channel;
             if (asSuperUser) {
                 int idx = 0;
                 while (idx < arguments.size()) {
@@ -57,6 +69,8 @@ public class SSHExecutor extends Executor {
                     idx++;
                 }
                 cmdLine = "sudo -S -p '' " + String.join(" ", arguments);
+            } else if (remoteKill) {
+                cmdLine = "echo " + PID_MARKER + "$$; exec " + cmdLine;
             }
             logger.info("[[" + host + "]] " + cmdLine);
             ((ChannelExec) channel).setCommand(cmdLine);
@@ -67,37 +81,24 @@ public class SSHExecutor extends Executor {
                 public synchronized void write(byte[] b, int off, int len) {
                     String message = new String(b, off, len).replaceAll("\n", "");
                     if (message.length() > 0) {
-                        logger.info("[" + host + "] " + message);
+                        outputLogger.info("[" + host + "] " + message);
                     }
                 }
             });
             InputStream inputStream = channel.getInputStream();
+            connectStart = System.currentTimeMillis();
             channel.connect();
+            connectTime += System.currentTimeMillis() - connectStart;
             if (asSuperUser) {
                 OutputStream outputStream = channel.getOutputStream();
                 outputStream.write((this.password + "\n").getBytes());
                 outputStream.flush();
             }
-            outReader = new BufferedReader(new InputStreamReader(inputStream));
-            String line;
-            while (!isStopped()) {
-                while (!isStopped && (line = outReader.readLine()) != null) {
-                    if (!"".equals(line.trim())) {
-                        if (outLines != null && !this.password.equals(line)) {
-                            outLines.add(line);
-                        }
-                        if (logMessages && !this.password.equals(line)) {
-                            this.logger.info(line);
-                        }
-                    }
-                }
-                if (channel.isClosed()) {
-                    if (inputStream.available() > 0)
-                        continue;
-                    stop();
-                } else {
-                    Thread.yield();
-                }
+            //consume the output until the remote end closes it
+            drain(inputStream, outLines, logMessages);
+            //the exit status is received together with the channel close message, shortly after EOF
+            while (!channel.isClosed() && !isStopped()) {
+                Thread.sleep(CLOSE_WAIT_INTERVAL);
             }
             ret = channel.getExitStatus();
         } catch (IOException | JSchException e) {
@@ -108,14 +109,85 @@ public class SSHExecutor extends Executor {
             if (channel != null) {
                 channel.disconnect();
             }
+            SSHSessionPool.getInstance().release(session);
+        }
+        return ret;
+    }
+
+    /**
+     * Signals the stop of the execution and closes the channel, if it is opened.
+     * If the remote process id was not yet received, the channel is kept open until it arrives, so that the
+     * remote process can still be killed.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        if (this.remoteKill && this.remotePid == 0 && this.channel != null) {
+            // the kill is sent by accept() as soon as the process id line is read
+            return;
+        }
+        killAndDisconnect();
+    }
+
+    @Override
+    protected boolean accept(String line) {
+        if (this.remoteKill && line.startsWith(PID_MARKER)) {
+            try {
+                this.remotePid = Integer.parseInt(line.substring(PID_MARKER.length()).trim());
+            } catch (NumberFormatException ignored) {
+            }
+            if (isStopped()) {
+                killAndDisconnect();
+            }
+            return false;
+        }
+        return !line.equals(this.password);
+    }
+
+    private void killAndDisconnect() {
+        int pid = this.remotePid;
+        if (pid > 0 && this.killSent.compareAndSet(false, true)) {
+            killRemote(pid);
+        }
+        Channel channel = this.channel;
+        if (channel != null) {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * Kills the process group of the given remote process. Since sshd starts the commands of sessions without
+     * a terminal in a new session, this also kills the children of the process.
+     * A dedicated session is used, so that the kill does not wait for a free channel of the pool.
+     */
+    private void killRemote(int pid) {
+        Session session = null;
+        ChannelExec killChannel = null;
+        try {
+            session = SSHSessionPool.getInstance().openDedicated(this.host, this.user, this.password, KILL_CONNECT_TIMEOUT);
+            killChannel = (ChannelExec) session.openChannel("exec");
+            killChannel.setCommand(String.format("kill -9 -- -%d 2>/dev/null || kill -9 %d", pid, pid));
+            killChannel.setInputStream(null);
+            killChannel.connect();
+            while (!killChannel.isClosed()) {
+                Thread.sleep(CLOSE_WAIT_INTERVAL);
+            }
+            logger.info("[[%s]] Remote process %s killed", host, pid);
+        } catch (JSchException e) {
+            logger.warn("[[%s]] Cannot kill remote process %s: %s", host, pid, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (killChannel != null) {
+                killChannel.disconnect();
+            }
             if (session != null) {
                 session.disconnect();
             }
         }
-        return ret;
     }
 
-    private class UserInfo implements com.jcraft.jsch.UserInfo {
+    static class UserInfo implements com.jcraft.jsch.UserInfo {
 
         private String pwd;
 
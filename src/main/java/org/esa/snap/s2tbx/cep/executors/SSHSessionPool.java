@@ -0,0 +1,254 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.esa.snap.s2tbx.cep.util.Logger;
+import org.esa.snap.s2tbx.cep.util.Utilities;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Pool of authenticated SSH sessions, shared by all the SSH executors.
+ * Several exec channels are multiplexed on the same session, so that the TCP and SSH handshakes
+ * (and the authentication) are performed only once for a group of commands sent to the same host.
+ *
+ * @author Cosmin Cara
+ */
+public class SSHSessionPool {
+
+    private static final int DEFAULT_CHANNELS_PER_SESSION = 8;
+    private static final int DEFAULT_SESSIONS_PER_HOST = 4;
+    private static final int HEALTH_CHECK_INTERVAL = 60;
+    private static final String COMPRESSION_ALGORITHMS = "zlib@openssh.com,zlib,none";
+    private static final int COMPRESSION_LEVEL = 6;
+    private static final SSHSessionPool instance = new SSHSessionPool();
+
+    private final Map<String, HostSessions> hosts;
+    private final Logger.CustomLogger logger;
+    private volatile int channelsPerSession;
+    private volatile int sessionsPerHost;
+    private volatile boolean compression;
+    private ScheduledExecutorService healthChecker;
+
+    public static SSHSessionPool getInstance() {
+        return instance;
+    }
+
+    private SSHSessionPool() {
+        this.hosts = new ConcurrentHashMap<>();
+        this.logger = Logger.getRootLogger();
+        this.channelsPerSession = DEFAULT_CHANNELS_PER_SESSION;
+        this.sessionsPerHost = DEFAULT_SESSIONS_PER_HOST;
+    }
+
+    /**
+     * Sets the maximum number of channels opened concurrently on a session.
+     * It should not exceed the <code>MaxSessions</code> setting of the remote sshd.
+     */
+    public void setChannelsPerSession(int value) {
+        this.channelsPerSession = Math.max(1, value);
+    }
+
+    /**
+     * Sets the maximum number of sessions opened concurrently to the same host.
+     */
+    public void setSessionsPerHost(int value) {
+        this.sessionsPerHost = Math.max(1, value);
+    }
+
+    /**
+     * Enables the zlib compression of the sessions opened afterwards, if the remote sshd supports it.
+     * It pays off when the data is transferred over the sessions (SFTP staging) and the network is slower than the CPUs.
+     */
+    public void setCompression(boolean value) {
+        this.compression = value;
+    }
+
+    /**
+     * Opens one session to each of the given hosts, in parallel.
+     * Hosts that cannot be connected are only reported, the connection being retried on first use.
+     */
+    public void preconnect(Collection<String> hostNames, String user, String password) {
+        hostNames.parallelStream().forEach(host -> {
+            try {
+                release(acquire(host, user, password));
+                logger.info("[[%s]] SSH session established", host);
+            } catch (JSchException | InterruptedException e) {
+                logger.warn("[[%s]] Cannot pre-connect: %s", host, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns a connected session to the given host that has a free channel, opening a new one if needed.
+     * The caller must give the session back through {@link #release(Session)} once its channel is closed.
+     */
+    public Session acquire(String host, String user, String password) throws JSchException, InterruptedException {
+        HostSessions sessions = this.hosts.computeIfAbsent(user + "@" + host, k -> new HostSessions(host, user, password));
+        ensureHealthChecker();
+        return sessions.acquire();
+    }
+
+    /**
+     * Gives back a session obtained through {@link #acquire(String, String, String)}.
+     */
+    public void release(Session session) {
+        if (session != null) {
+            HostSessions sessions = this.hosts.get(session.getUserName() + "@" + session.getHost());
+            if (sessions != null) {
+                sessions.release(session);
+            } else {
+                session.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Disconnects all the pooled sessions.
+     */
+    public void close() {
+        synchronized (this) {
+            if (this.healthChecker != null) {
+                this.healthChecker.shutdownNow();
+                this.healthChecker = null;
+            }
+        }
+        this.hosts.values().forEach(HostSessions::close);
+        this.hosts.clear();
+    }
+
+    /**
+     * Opens a session to the given host that is not part of the pool, for short control commands that must not
+     * wait for a free pooled channel. The caller has to disconnect it.
+     *
+     * @param timeout   The connect timeout, in milliseconds
+     */
+    public Session openDedicated(String host, String user, String password, int timeout) throws JSchException {
+        return connect(host, user, password, timeout);
+    }
+
+    private Session connect(String host, String user, String password, int timeout) throws JSchException {
+        JSch jSch = new JSch();
+        //jSch.setKnownHosts("D:\\known_hosts");
+        Session session = jSch.getSession(user, host, 22);
+        session.setUserInfo(new SSHExecutor.UserInfo(password));
+        session.setPassword(password.getBytes());
+        session.setConfig("StrictHostKeyChecking", "no");
+        if (this.compression) {
+            session.setConfig("compression.s2c", COMPRESSION_ALGORITHMS);
+            session.setConfig("compression.c2s", COMPRESSION_ALGORITHMS);
+            session.setConfig("compression_level", String.valueOf(COMPRESSION_LEVEL));
+        }
+        session.connect(timeout);
+        return session;
+    }
+
+    private synchronized void ensureHealthChecker() {
+        if (this.healthChecker == null) {
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(Utilities.newThreadFactory("ssh-health-check"));
+            this.healthChecker.scheduleWithFixedDelay(() -> this.hosts.values().forEach(HostSessions::checkIdle),
+                                                      HEALTH_CHECK_INTERVAL, HEALTH_CHECK_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    private class HostSessions {
+        private final String host;
+        private final String user;
+        private final String password;
+        private final Map<Session, Integer> channels;
+        private int pending;
+
+        HostSessions(String host, String user, String password) {
+            this.host = host;
+            this.user = user;
+            this.password = password;
+            this.channels = new LinkedHashMap<>();
+        }
+
+        Session acquire() throws JSchException, InterruptedException {
+            synchronized (this) {
+                while (true) {
+                    Iterator<Map.Entry<Session, Integer>> iterator = this.channels.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<Session, Integer> entry = iterator.next();
+                        if (!entry.getKey().isConnected()) {
+                            if (entry.getValue() == 0) {
+                                iterator.remove();
+                            }
+                        } else if (entry.getValue() < channelsPerSession) {
+                            entry.setValue(entry.getValue() + 1);
+                            return entry.getKey();
+                        }
+                    }
+                    if (this.channels.size() + this.pending < sessionsPerHost) {
+                        this.pending++;
+                        break;
+                    }
+                    wait();
+                }
+            }
+            Session session = null;
+            try {
+                session = connect();
+            } finally {
+                synchronized (this) {
+                    this.pending--;
+                    if (session != null) {
+                        this.channels.put(session, 1);
+                    }
+                    notifyAll();
+                }
+            }
+            return session;
+        }
+
+        synchronized void release(Session session) {
+            Integer count = this.channels.get(session);
+            if (count != null) {
+                if (!session.isConnected() && count <= 1) {
+                    this.channels.remove(session);
+                } else {
+                    this.channels.put(session, Math.max(0, count - 1));
+                }
+            } else {
+                session.disconnect();
+            }
+            notifyAll();
+        }
+
+        /**
+         * Sends a keep-alive message on the idle sessions and drops the ones that do not respond.
+         */
+        synchronized void checkIdle() {
+            Iterator<Map.Entry<Session, Integer>> iterator = this.channels.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Session, Integer> entry = iterator.next();
+                if (entry.getValue() == 0) {
+                    Session session = entry.getKey();
+                    try {
+                        if (!session.isConnected()) {
+                            throw new JSchException("session is down");
+                        }
+                        session.sendKeepAliveMsg();
+                    } catch (Exception e) {
+                        logger.warn("[[%s]] Dropping idle SSH session: %s", this.host, e.getMessage());
+                        session.disconnect();
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        synchronized void close() {
+            this.channels.keySet().forEach(Session::disconnect);
+            this.channels.clear();
+            notifyAll();
+        }
+
+        private Session connect() throws JSchException {
+            return SSHSessionPool.this.connect(this.host, this.user, this.password, 0);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Executor that doesn't execute anything, but sleeps (or spins) for a runtime drawn from a {@link SimulationProfile}.
+ * It needs no network, hence the scheduling of large clusters can be replayed on a single machine.
+ * The progress of the job is reported every 10%. A failing job stops at a random point with exit code 1;
+ * a stopped job exits with code 137, as a killed process.
+ *
+ * @author Cosmin Cara
+ */
+public class SimulatedExecutor extends Executor {
+
+    private static final int STOPPED_CODE = 137;
+    private static final int PROGRESS_STEP = 10;
+    private SimulationProfile profile = new SimulationProfile();
+
+    public SimulatedExecutor(String host, List<String> args, boolean asSU, CountDownLatch sharedCounter) {
+        super(host, args, asSU, sharedCounter);
+    }
+
+    public void setProfile(SimulationProfile profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public int execute(List<String> outLines, boolean logMessages) throws InterruptedException {
+        long connect = this.profile.getScaledConnectTime();
+        pause(connect);
+        this.connectTime = connect;
+        long runtime = this.profile.nextRuntime(this.host);
+        int failAt = this.profile.nextFailure() ? ThreadLocalRandom.current().nextInt(PROGRESS_STEP, 100) : Integer.MAX_VALUE;
+        for (int percent = PROGRESS_STEP; percent <= 100; percent += PROGRESS_STEP) {
+            pause(runtime * PROGRESS_STEP / 100);
+            if (isStopped()) {
+                return STOPPED_CODE;
+            }
+            if (percent >= failAt) {
+                return 1;
+            }
+            progress(percent);
+        }
+        if (outLines != null) {
+            outLines.add("Simulated " + String.join(" ", this.arguments));
+        }
+        return 0;
+    }
+
+    private void pause(long millis) throws InterruptedException {
+        if (this.profile.isSpin()) {
+            long end = System.nanoTime() + millis * 1000000L;
+            while (System.nanoTime() < end && !isStopped()) {
+                // keep the core busy
+            }
+        } else {
+            long end = System.currentTimeMillis() + millis;
+            long remaining;
+            while ((remaining = end - System.currentTimeMillis()) > 0 && !isStopped()) {
+                Thread.sleep(Math.min(remaining, 100));
+            }
+        }
+    }
+}
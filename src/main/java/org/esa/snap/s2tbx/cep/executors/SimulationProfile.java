@@ -0,0 +1,126 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The behaviour of the jobs executed by a {@link SimulatedExecutor}.
+ * The runtime of a job follows a log-normal distribution around a median, scaled by the speed of the node.
+ * A job may fail (after part of its runtime) or straggle (its runtime being multiplied by a factor).
+ * The simulated times are converted to wall-clock times through a time scale, so that a long run
+ * can be replayed in minutes.
+ *
+ * @author Cosmin Cara
+ */
+public class SimulationProfile {
+
+    private long medianRuntime = 600000;
+    private double sigma = 0.25;
+    private double failureRate;
+    private double stragglerRate;
+    private double stragglerFactor = 5;
+    private long connectTime = 50;
+    private double timeScale = 1;
+    private boolean spin;
+    private final Map<String, Double> nodeSpeeds = new HashMap<>();
+
+    /**
+     * Sets the median runtime (in simulated milliseconds) of a job on a node of speed 1.
+     */
+    public SimulationProfile setMedianRuntime(long medianRuntime) {
+        this.medianRuntime = Math.max(0, medianRuntime);
+        return this;
+    }
+
+    /**
+     * Sets the standard deviation of the logarithm of the runtime (0 for constant runtimes).
+     */
+    public SimulationProfile setSigma(double sigma) {
+        this.sigma = Math.max(0, sigma);
+        return this;
+    }
+
+    /**
+     * Sets the probability of a job to fail.
+     */
+    public SimulationProfile setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Sets the probability of a job to straggle and the factor applied to the runtime of a straggler.
+     */
+    public SimulationProfile setStragglers(double rate, double factor) {
+        this.stragglerRate = rate;
+        this.stragglerFactor = Math.max(1, factor);
+        return this;
+    }
+
+    /**
+     * Sets the time (in simulated milliseconds) needed to connect to a node.
+     */
+    public SimulationProfile setConnectTime(long connectTime) {
+        this.connectTime = Math.max(0, connectTime);
+        return this;
+    }
+
+    /**
+     * Sets the wall-clock time of a simulated millisecond (e.g. 0.01 replays 100 simulated seconds in one second).
+     */
+    public SimulationProfile setTimeScale(double timeScale) {
+        this.timeScale = timeScale > 0 ? timeScale : 1;
+        return this;
+    }
+
+    public double getTimeScale() { return this.timeScale; }
+
+    /**
+     * Makes the jobs keep a core busy instead of sleeping.
+     */
+    public SimulationProfile setSpin(boolean spin) {
+        this.spin = spin;
+        return this;
+    }
+
+    public boolean isSpin() { return this.spin; }
+
+    /**
+     * Sets the speed of a node, relative to the median (e.g. 0.5 for a node twice slower). The default speed is 1.
+     */
+    public SimulationProfile setNodeSpeed(String node, double speed) {
+        if (speed > 0) {
+            this.nodeSpeeds.put(node, speed);
+        }
+        return this;
+    }
+
+    /**
+     * Draws the wall-clock runtime (in milliseconds) of a job executed on the given node.
+     */
+    long nextRuntime(String node) {
+        Random random = ThreadLocalRandom.current();
+        double runtime = this.medianRuntime * Math.exp(this.sigma * random.nextGaussian()) /
+                this.nodeSpeeds.getOrDefault(node, 1.0);
+        if (random.nextDouble() < this.stragglerRate) {
+            runtime *= this.stragglerFactor;
+        }
+        return (long) (runtime * this.timeScale);
+    }
+
+    /**
+     * Draws whether a job fails.
+     */
+    boolean nextFailure() {
+        return ThreadLocalRandom.current().nextDouble() < this.failureRate;
+    }
+
+    /**
+     * Returns the wall-clock time (in milliseconds) needed to connect to a node.
+     */
+    long getScaledConnectTime() {
+        return (long) (this.connectTime * this.timeScale);
+    }
+}
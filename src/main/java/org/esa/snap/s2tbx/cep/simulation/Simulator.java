@@ -0,0 +1,187 @@
+package org.esa.snap.s2tbx.cep.simulation;
+
+import org.apache.commons.cli.*;
+import org.esa.snap.s2tbx.cep.Constants;
+import org.esa.snap.s2tbx.cep.dispatch.Job;
+import org.esa.snap.s2tbx.cep.dispatch.JobDispatcher;
+import org.esa.snap.s2tbx.cep.dispatch.JobState;
+import org.esa.snap.s2tbx.cep.dispatch.Node;
+import org.esa.snap.s2tbx.cep.dispatch.RunMetrics;
+import org.esa.snap.s2tbx.cep.executors.SimulationProfile;
+import org.esa.snap.s2tbx.cep.util.Logger;
+import org.esa.snap.s2tbx.cep.util.Utilities;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a run on a virtual cluster, through the same {@link JobDispatcher} as the orchestrator,
+ * the jobs being simulated by {@link org.esa.snap.s2tbx.cep.executors.SimulatedExecutor}s.
+ * The simulated time is scaled down (by default, one simulated second lasts one millisecond), hence a run of
+ * thousands of products on hundreds of nodes is replayed in minutes. The makespan, the utilisation of the slots
+ * and the queue waits are reported in simulated time, so that scheduling policies (slots, batching, speculation,
+ * stall detection) can be compared before being used on a real cluster.
+ *
+ * @author Cosmin Cara
+ */
+public class Simulator {
+
+    private static final String PARAM_PRODUCTS = "n";
+    private static final String PARAM_NODES = "nodes";
+    private static final String PARAM_SLOTS = "slots";
+    private static final String PARAM_RUNTIME = "rt";
+    private static final String PARAM_SIGMA = "sg";
+    private static final String PARAM_FAILURES = "fr";
+    private static final String PARAM_STRAGGLERS = "sr";
+    private static final String PARAM_STRAGGLER_FACTOR = "sf";
+    private static final String PARAM_SLOW_NODES = "slow";
+    private static final String PARAM_SLOW_SPEED = "speed";
+    private static final String PARAM_TIME_SCALE = "ts";
+    private static final String PARAM_SPIN = "spin";
+    private static final String PARAM_REPORT = "o";
+    private static final String REPORT_FILE_NAME = "simulation_metrics.json";
+    private static final long MIN_MONITOR_INTERVAL = 10;
+
+    private static Options options() {
+        Options options = new Options();
+        options.addOption(Option.builder(PARAM_PRODUCTS).hasArg().argName("products")
+                .desc("The number of products (default 10000)").build());
+        options.addOption(Option.builder(PARAM_NODES).hasArg().argName("nodes")
+                .desc("The number of virtual nodes (default 200)").build());
+        options.addOption(Option.builder(PARAM_SLOTS).hasArg().argName("slots")
+                .desc("The number of slots of a node (default 4)").build());
+        options.addOption(Option.builder(PARAM_RUNTIME).hasArg().argName("seconds")
+                .desc("The median runtime of a job (default 600)").build());
+        options.addOption(Option.builder(PARAM_SIGMA).hasArg().argName("sigma")
+                .desc("The standard deviation of the logarithm of the runtime (default 0.25)").build());
+        options.addOption(Option.builder(PARAM_FAILURES).hasArg().argName("rate")
+                .desc("The probability of a job to fail (default 0)").build());
+        options.addOption(Option.builder(PARAM_STRAGGLERS).hasArg().argName("rate")
+                .desc("The probability of a job to straggle (default 0.02)").build());
+        options.addOption(Option.builder(PARAM_STRAGGLER_FACTOR).hasArg().argName("factor")
+                .desc("The runtime factor of a straggler (default 5)").build());
+        options.addOption(Option.builder(PARAM_SLOW_NODES).hasArg().argName("fraction")
+                .desc("The fraction of slow nodes (default 0)").build());
+        options.addOption(Option.builder(PARAM_SLOW_SPEED).hasArg().argName("speed")
+                .desc("The speed of the slow nodes, relative to the others (default 0.5)").build());
+        options.addOption(Option.builder(PARAM_TIME_SCALE).hasArg().argName("scale")
+                .desc("The wall-clock duration of a simulated second, in milliseconds (default 1)").build());
+        options.addOption(Option.builder(PARAM_SPIN)
+                .desc("Keeps a core busy during the simulated jobs, instead of sleeping").build());
+        options.addOption(Option.builder(Constants.PARAM_SPECULATION).hasArg().optionalArg(true).argName("speculation.factor")
+                .desc("Enables the speculative execution (default factor 2)").build());
+        options.addOption(Option.builder(Constants.PARAM_BATCH).hasArg().optionalArg(true).argName("batch.size")
+                .desc("Executes up to batch.size products per job (default 4)").build());
+        options.addOption(Option.builder(Constants.PARAM_STALL).hasArg().optionalArg(true).argName("stall.timeout")
+                .desc("Stops and reschedules a job whose progress does not advance for stall.timeout simulated minutes (default 15)").build());
+        options.addOption(Option.builder(PARAM_REPORT).hasArg().argName("folder")
+                .desc("The folder of the report and of the log (default: current folder)").build());
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = options();
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter().printHelp("java -cp s2tbx-cep-1.0.jar " + Simulator.class.getName(), options);
+            return;
+        }
+        Path reportFolder = Paths.get(commandLine.getOptionValue(PARAM_REPORT, "."));
+        Logger.initialize(reportFolder.resolve("simulation.log").toAbsolutePath().toString());
+        Logger.CustomLogger logger = Logger.getRootLogger();
+
+        int productCount = Integer.parseInt(commandLine.getOptionValue(PARAM_PRODUCTS, "10000"));
+        int nodeCount = Integer.parseInt(commandLine.getOptionValue(PARAM_NODES, "200"));
+        int slots = Integer.parseInt(commandLine.getOptionValue(PARAM_SLOTS, "4"));
+        double timeScale = Double.parseDouble(commandLine.getOptionValue(PARAM_TIME_SCALE, "1")) / 1000;
+        double slowFraction = Double.parseDouble(commandLine.getOptionValue(PARAM_SLOW_NODES, "0"));
+        double slowSpeed = Double.parseDouble(commandLine.getOptionValue(PARAM_SLOW_SPEED, "0.5"));
+        SimulationProfile profile = new SimulationProfile()
+                .setMedianRuntime(TimeUnit.SECONDS.toMillis(Long.parseLong(commandLine.getOptionValue(PARAM_RUNTIME, "600"))))
+                .setSigma(Double.parseDouble(commandLine.getOptionValue(PARAM_SIGMA, "0.25")))
+                .setFailureRate(Double.parseDouble(commandLine.getOptionValue(PARAM_FAILURES, "0")))
+                .setStragglers(Double.parseDouble(commandLine.getOptionValue(PARAM_STRAGGLERS, "0.02")),
+                               Double.parseDouble(commandLine.getOptionValue(PARAM_STRAGGLER_FACTOR, "5")))
+                .setTimeScale(timeScale)
+                .setSpin(commandLine.hasOption(PARAM_SPIN));
+
+        List<Node> nodes = new ArrayList<>();
+        int slowNodes = (int) Math.round(nodeCount * slowFraction);
+        for (int i = 1; i <= nodeCount; i++) {
+            String name = String.format("sim-%03d", i);
+            if (i <= slowNodes) {
+                profile.setNodeSpeed(name, slowSpeed);
+            }
+            nodes.add(new Node(name, Constants.CONST_LINUX, slots));
+        }
+        int slotCount = nodes.stream().mapToInt(Node::getSlots).sum();
+        JobDispatcher dispatcher = new JobDispatcher(nodes,
+                (jobs, node, attempt) -> Collections.singletonList("simulate " + jobs),
+                slotCount * Constants.QUEUED_JOBS_PER_SLOT);
+        dispatcher.simulate(profile);
+        dispatcher.setMonitorInterval(Math.max(MIN_MONITOR_INTERVAL, (long) (TimeUnit.SECONDS.toMillis(10) * timeScale)),
+                                      TimeUnit.MILLISECONDS);
+        if (commandLine.hasOption(Constants.PARAM_SPECULATION)) {
+            String factor = commandLine.getOptionValue(Constants.PARAM_SPECULATION);
+            dispatcher.setSpeculationFactor(factor != null ? Double.parseDouble(factor) : Constants.DEFAULT_SPECULATION_FACTOR);
+        }
+        if (commandLine.hasOption(Constants.PARAM_BATCH)) {
+            String batchSize = commandLine.getOptionValue(Constants.PARAM_BATCH);
+            dispatcher.setBatching(batchSize != null ? Integer.parseInt(batchSize) : Constants.DEFAULT_MAX_BATCH_SIZE, 0);
+        }
+        if (commandLine.hasOption(Constants.PARAM_STALL)) {
+            String stallTimeout = commandLine.getOptionValue(Constants.PARAM_STALL);
+            long minutes = stallTimeout != null ? Long.parseLong(stallTimeout) : Constants.DEFAULT_STALL_TIMEOUT;
+            dispatcher.setStallTimeout(Math.max(1, (long) (TimeUnit.MINUTES.toMillis(minutes) * timeScale)), TimeUnit.MILLISECONDS);
+        }
+        RunMetrics metrics = new RunMetrics("simulated", "none", reportFolder.resolve(REPORT_FILE_NAME));
+        dispatcher.setMetrics(metrics);
+
+        logger.info("Simulating %s products on %s nodes (%s slots), %s simulated seconds per wall-clock second",
+                    productCount, nodeCount, slotCount, Math.round(1 / timeScale));
+        ExecutorService slotService = Executors.newFixedThreadPool(slotCount, Utilities.newThreadFactory("slot"));
+        long start = System.currentTimeMillis();
+        dispatcher.start(slotService);
+        for (int i = 0; i < productCount; i++) {
+            dispatcher.submit(Paths.get(String.format("S2A_MSIL1C_SIM_%05d.SAFE", i)));
+        }
+        dispatcher.close();
+        dispatcher.awaitCompletion(365, TimeUnit.DAYS);
+        long makespan = System.currentTimeMillis() - start;
+        dispatcher.stop();
+        slotService.shutdownNow();
+        metrics.stop();
+
+        List<Job> jobs = dispatcher.getJobs();
+        long done = jobs.stream().filter(job -> job.getState() == JobState.DONE).count();
+        long backups = jobs.stream().filter(job -> job.getState() == JobState.DONE && job.getAttempt() > 0).count();
+        logger.info("Makespan: %s, utilisation: %.1f%%", duration(makespan, timeScale), metrics.getUtilisation() * 100);
+        logger.info("Queue wait: p50 %s, p95 %s, max %s",
+                    duration(metrics.getPercentile(RunMetrics.PHASE_QUEUE_WAIT, 0.5), timeScale),
+                    duration(metrics.getPercentile(RunMetrics.PHASE_QUEUE_WAIT, 0.95), timeScale),
+                    duration(metrics.getPercentile(RunMetrics.PHASE_QUEUE_WAIT, 1), timeScale));
+        logger.info("Runtime: p50 %s, p95 %s, max %s",
+                    duration(metrics.getPercentile(RunMetrics.PHASE_RUNTIME, 0.5), timeScale),
+                    duration(metrics.getPercentile(RunMetrics.PHASE_RUNTIME, 0.95), timeScale),
+                    duration(metrics.getPercentile(RunMetrics.PHASE_RUNTIME, 1), timeScale));
+        logger.info("Jobs: %s done (%s by a backup copy), %s failed. The times of %s are in wall-clock time",
+                    done, backups, jobs.size() - done, REPORT_FILE_NAME);
+        System.exit(0);
+    }
+
+    /**
+     * Formats the simulated duration corresponding to the given wall-clock duration.
+     */
+    private static String duration(long millis, double timeScale) {
+        long seconds = (long) (millis / timeScale / 1000);
+        return String.format("%02dh%02dm%02ds", seconds / 3600, (seconds % 3600) / 60, seconds % 60);
+    }
+}
@@ -2,6 +2,7 @@ package org.esa.snap.s2tbx.cep.util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Created by kraftek on 9/6/2016.
@@ -30,6 +31,13 @@ public class GraphDescriptor {
         return this.nodes.size();
     }
 
+    /**
+     * Returns the operators of the graph, in execution order, separated by <code>&gt;</code>.
+     */
+    public String getOperatorChain() {
+        return this.nodes.stream().map(GraphNode::getOperator).collect(Collectors.joining(">"));
+    }
+
     public void insertNode(int index, String operator, String arguments) {
         if (index >= 0 && index < this.nodes.size()) {
             GraphNode previous = index > 0 ? this.nodes.get(index - 1) : null;
@@ -39,6 +47,31 @@ public class GraphDescriptor {
         }
     }
 
+    /**
+     * Builds a graph made of <code>count</code> independent copies of this graph, each copy ending with
+     * a Write node. The node ids and the variables of the i-th copy get the suffix <code>_i</code> (i starting at 1).
+     *
+     * @param count             The number of copies
+     * @param formatName        The output format of the Write nodes
+     * @param targetVariable    The variable holding the output file of the Write nodes
+     */
+    public GraphDescriptor replicate(int count, String formatName, String targetVariable) {
+        GraphDescriptor graph = new GraphDescriptor();
+        for (int i = 1; i <= count; i++) {
+            String suffix = "_" + String.valueOf(i);
+            GraphNode previous = null;
+            for (GraphNode node : this.nodes) {
+                previous = new GraphNode(node, suffix, previous);
+                graph.nodes.add(previous);
+            }
+            GraphNode write = new GraphNode("Write", null, previous);
+            write.setArgument("file", GraphTemplate.variable(targetVariable));
+            write.setArgument("formatName", formatName);
+            graph.nodes.add(new GraphNode(write, suffix, previous));
+        }
+        return graph;
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -1,22 +1,50 @@
 package org.esa.snap.s2tbx.cep.util;
 
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * Created by kraftek on 9/6/2016.
  */
 public class GraphNode {
 
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\{(\\w+)\\}");
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z]\\w*");
+
+    private String id;
     private String operator;
     private Map<String, Object> parameters;
     private GraphNode previous;
 
     GraphNode(String operator, String arguments, GraphNode previous) {
+        this.id = operator;
         this.operator = operator;
         this.parameters = parseArguments(arguments);
         this.previous = previous;
     }
 
+    /**
+     * Creates a copy of the given node, having the given id suffix. The variables referenced
+     * by the parameters of the node get the same suffix.
+     */
+    GraphNode(GraphNode other, String suffix, GraphNode previous) {
+        this.id = other.id + suffix;
+        this.operator = other.operator;
+        this.parameters = new HashMap<>();
+        for (Map.Entry<String, Object> entry : other.parameters.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                value = VARIABLE_PATTERN.matcher((String) value).replaceAll("\\${$1" + suffix + "}");
+            }
+            this.parameters.put(entry.getKey(), value);
+        }
+        this.previous = previous;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
     public String getOperator() {
         return this.operator;
     }
@@ -29,6 +57,23 @@ public class GraphNode {
         this.parameters.put(name, value);
     }
 
+    /**
+     * Returns the values of the given key in the elements of a collection parameter
+     * (e.g. the expressions of the variables of a Mosaic), or an empty list if there is no such parameter.
+     */
+    public List<String> getCollectionValues(String parameter, String key) {
+        List<String> values = new ArrayList<>();
+        Object value = this.parameters.get(parameter);
+        if (value instanceof CollectionElement) {
+            for (Map<String, String> element : ((CollectionElement) value).elements) {
+                if (element.containsKey(key)) {
+                    values.add(element.get(key));
+                }
+            }
+        }
+        return values;
+    }
+
     public String parametersToString() {
         StringBuilder builder = new StringBuilder();
         builder.append(XmlConstants.LEVEL_3).append("<parameters class=\"com.bc.ceres.binding.dom.XppDomElement\">\n");
@@ -49,11 +94,11 @@ public class GraphNode {
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        builder.append(XmlConstants.LEVEL_2).append("<node id=\"").append(this.operator).append("\">\n");
+        builder.append(XmlConstants.LEVEL_2).append("<node id=\"").append(this.id).append("\">\n");
         builder.append(XmlConstants.LEVEL_3).append("<operator>").append(this.operator).append("</operator>\n");
         builder.append(XmlConstants.LEVEL_3).append("<sources>\n");
         if (previous != null) {
-            builder.append(XmlConstants.LEVEL_4).append("<sourceProduct refid=\"").append(previous.operator).append("\"/>\n");
+            builder.append(XmlConstants.LEVEL_4).append("<sourceProduct refid=\"").append(previous.id).append("\"/>\n");
         }
         builder.append(XmlConstants.LEVEL_3).append("</sources>\n");
         builder.append(XmlConstants.LEVEL_3).append("<parameters class=\"com.bc.ceres.binding.dom.XppDomElement\">\n");
@@ -107,9 +152,16 @@ public class GraphNode {
                 elementContents = new LinkedHashMap<>();
                 stringElement = stringElement.substring(stringElement.indexOf("[") + 1, stringElement.length() - 1);
                 String[] elements = stringElement.split(",");
+                String key = null;
                 for (String element : elements) {
-                    String[] tokens = element.split("=");
-                    elementContents.put(tokens[0], tokens[1]);
+                    String[] tokens = element.split("=", 2);
+                    if (tokens.length == 2 && KEY_PATTERN.matcher(tokens[0]).matches()) {
+                        key = tokens[0];
+                        elementContents.put(key, tokens[1]);
+                    } else if (key != null) {
+                        // a comma inside a value, such as between the arguments of a function of an expression
+                        elementContents.put(key, elementContents.get(key) + "," + element);
+                    }
                 }
                 collection.addElement(elementContents);
             }
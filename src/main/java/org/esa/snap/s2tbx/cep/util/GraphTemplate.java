@@ -0,0 +1,111 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable, serialized form of a {@link GraphDescriptor} whose parameters may contain named variables
+ * (<code>${name}</code>). The graph is written once and the variables are bound for each execution
+ * through <code>gpt -Pname=value</code> arguments, hence it can be shared by concurrent jobs.
+ *
+ * @author Cosmin Cara
+ */
+public final class GraphTemplate {
+
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\{(\\w+)\\}");
+    private static final Pattern SAFE_POSIX_VALUE = Pattern.compile("[A-Za-z0-9_./:@%+,=-]+");
+    private static final Pattern SAFE_WINDOWS_VALUE = Pattern.compile("[A-Za-z0-9_./\\\\:@+,=-]+");
+
+    private final String xml;
+    private final Set<String> variables;
+
+    private GraphTemplate(String xml) {
+        this.xml = xml;
+        Set<String> names = new LinkedHashSet<>();
+        Matcher matcher = VARIABLE_PATTERN.matcher(xml);
+        while (matcher.find()) {
+            names.add(matcher.group(1));
+        }
+        this.variables = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Compiles the current state of the given graph. Later changes of the graph do not affect the template.
+     *
+     * @param graph     The graph
+     */
+    public static GraphTemplate compile(GraphDescriptor graph) {
+        return new GraphTemplate(graph.toString());
+    }
+
+    /**
+     * Returns the reference to the given variable, to be used as a parameter value.
+     *
+     * @param name  The variable name
+     */
+    public static String variable(String name) {
+        return "${" + name + "}";
+    }
+
+    public Set<String> getVariables() { return this.variables; }
+
+    public String getXml() { return this.xml; }
+
+    /**
+     * Writes the graph to the given file.
+     *
+     * @param file  The target file
+     *
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        Files.write(file, this.xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the gpt arguments binding the variables of the graph to the given values, for a POSIX shell.
+     *
+     * @param values    The values of the variables
+     *
+     * @throws IllegalArgumentException if a variable has no value
+     */
+    public String bind(Map<String, String> values) {
+        return bind(values, false);
+    }
+
+    /**
+     * Returns the gpt arguments binding the variables of the graph to the given values. The values holding
+     * characters interpreted by the shell (spaces, quotes, <code>$</code>, etc.) are quoted: in single quotes
+     * for a POSIX shell, in double quotes for the Windows command interpreter.
+     *
+     * @param values    The values of the variables
+     * @param windows   If <code>true</code>, the arguments are quoted for the Windows command interpreter
+     *
+     * @throws IllegalArgumentException if a variable has no value
+     */
+    public String bind(Map<String, String> values, boolean windows) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : this.variables) {
+            String value = values.get(name);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format("No value for graph variable %s", name));
+            }
+            if (builder.length() > 0) {
+                builder.append(" ");
+            }
+            builder.append("-P").append(name).append("=");
+            if (!(windows ? SAFE_WINDOWS_VALUE : SAFE_POSIX_VALUE).matcher(value).matches()) {
+                builder.append(windows ? "\"" + value.replace("\"", "\\\"") + "\"" :
+                                         "'" + value.replace("'", "'\\''") + "'");
+            } else {
+                builder.append(value);
+            }
+        }
+        return builder.toString();
+    }
+}
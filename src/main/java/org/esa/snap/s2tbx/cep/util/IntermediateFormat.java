@@ -0,0 +1,166 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Describes how the slave results, read back by the master, are written: a tiled BigTIFF, compressed
+ * (through the system properties of the SNAP BigTIFF writer), holding all the bands or only some of them.
+ * Every byte of a result crosses the network twice (written by a slave, read by the master), hence the
+ * default is a lossless compression and, for a Mosaic master, only the bands used by its variables and conditions.
+ *
+ * @author Cosmin Cara
+ */
+public class IntermediateFormat {
+
+    public static final String AUTO = "auto";
+    public static final String ALL_BANDS = "all";
+    public static final String COMPRESSION_NONE = "NONE";
+    public static final String COMPRESSION_LZW = "LZW";
+    public static final String COMPRESSION_JPEG = "JPEG";
+
+    private static final String PROPERTY_COMPRESSION = "snap.dataio.bigtiff.compression.type";
+    private static final String PROPERTY_TILE_WIDTH = "snap.dataio.bigtiff.tiling.width";
+    private static final String PROPERTY_TILE_HEIGHT = "snap.dataio.bigtiff.tiling.height";
+    private static final int DEFAULT_TILE_SIZE = 512;
+    private static final Pattern SYMBOL_PATTERN = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)(\\.[A-Za-z_]+)?\\s*(\\()?");
+    private static final Pattern BAND_PATTERN = Pattern.compile("B([1-9]|1[0-2]|8A)|AOT|WVP|SCL|quality_\\w+|(sun|view)_\\w+");
+    private static final String EXPRESSION_CHARACTERS = " _.,+-*/%<>=!&|?:^~";
+    private static final Set<String> RESERVED_SYMBOLS = new HashSet<>(Arrays.asList(
+            "if", "then", "else", "and", "or", "not", "true", "false",
+            "NaN", "PI", "E", "X", "Y", "LAT", "LON", "TIME", "MJD"));
+
+    private String compression = COMPRESSION_LZW;
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private List<String> bands = Collections.emptyList();
+
+    /**
+     * Returns the default format of the results read by the given master graph.
+     */
+    public static IntermediateFormat forMaster(GraphDescriptor masterGraph) {
+        IntermediateFormat format = new IntermediateFormat();
+        format.bands = usedBands(masterGraph);
+        return format;
+    }
+
+    /**
+     * Sets the compression of the BigTIFF writer (NONE, LZW or JPEG, the latter being lossy).
+     * <code>auto</code> keeps the default (LZW).
+     */
+    public void setCompression(String compression) {
+        if (!AUTO.equalsIgnoreCase(compression)) {
+            this.compression = compression.toUpperCase();
+        }
+    }
+
+    /**
+     * Sets the width and height (in pixels) of the tiles.
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(16, tileSize);
+    }
+
+    /**
+     * Sets the bands written, as a comma separated list. <code>all</code> writes all the bands,
+     * <code>auto</code> keeps the default.
+     */
+    public void setBands(String bands) {
+        if (ALL_BANDS.equalsIgnoreCase(bands)) {
+            this.bands = Collections.emptyList();
+        } else if (!AUTO.equalsIgnoreCase(bands)) {
+            this.bands = new ArrayList<>();
+            for (String band : bands.split(",")) {
+                if (!band.trim().isEmpty()) {
+                    this.bands.add(band.trim());
+                }
+            }
+        }
+    }
+
+    public String getCompression() { return this.compression; }
+
+    public int getTileSize() { return this.tileSize; }
+
+    /**
+     * Returns the bands written, an empty list meaning all the bands.
+     */
+    public List<String> getBands() { return this.bands; }
+
+    /**
+     * Appends to the given slave graph the subset of the written bands, if not all of them are written.
+     */
+    public void apply(GraphDescriptor slaveGraph) {
+        if (!this.bands.isEmpty()) {
+            slaveGraph.addNode("Subset", null);
+            slaveGraph.getNode(slaveGraph.getNodeCount() - 1).setArgument("sourceBands", String.join(",", this.bands));
+        }
+    }
+
+    /**
+     * Returns the gpt options that configure the BigTIFF writer.
+     */
+    public String toGptOptions() {
+        return "-J-D" + PROPERTY_COMPRESSION + "=" + this.compression +
+               " -J-D" + PROPERTY_TILE_WIDTH + "=" + this.tileSize +
+               " -J-D" + PROPERTY_TILE_HEIGHT + "=" + this.tileSize;
+    }
+
+    @Override
+    public String toString() {
+        return "BigTIFF, " + this.compression + " compression, " + this.tileSize + "x" + this.tileSize + " tiles, " +
+               (this.bands.isEmpty() ? "all bands" : "bands " + String.join(",", this.bands));
+    }
+
+    /**
+     * Returns the bands referenced by the variable and condition expressions of a Mosaic master, or an empty list
+     * if the master is not a Mosaic or the bands cannot be determined. The bands cannot be determined when an
+     * expression is malformed or references a symbol that is not a Sentinel-2 band, such as a mask or a virtual
+     * band, whose own expression (as the valid-pixel expressions of the bands) is only known from the product.
+     */
+    static List<String> usedBands(GraphDescriptor masterGraph) {
+        GraphNode master = masterGraph.getNode(0);
+        if (master == null || !"Mosaic".equals(master.getOperator())) {
+            return Collections.emptyList();
+        }
+        List<String> expressions = new ArrayList<>(master.getCollectionValues("variables", "expression"));
+        if (expressions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        expressions.addAll(master.getCollectionValues("conditions", "expression"));
+        Set<String> bands = new LinkedHashSet<>();
+        for (String expression : expressions) {
+            if (!isWellFormed(expression)) {
+                return Collections.emptyList();
+            }
+            Matcher matcher = SYMBOL_PATTERN.matcher(expression);
+            while (matcher.find()) {
+                // a symbol followed by a parenthesis is a function, one preceded by a digit is part of a number
+                if (matcher.group(3) != null || RESERVED_SYMBOLS.contains(matcher.group(1)) ||
+                        (matcher.start() > 0 && Character.isDigit(expression.charAt(matcher.start() - 1)))) {
+                    continue;
+                }
+                if (!BAND_PATTERN.matcher(matcher.group(1)).matches()) {
+                    return Collections.emptyList();
+                }
+                bands.add(matcher.group(1));
+            }
+        }
+        return new ArrayList<>(bands);
+    }
+
+    private static boolean isWellFormed(String expression) {
+        int depth = 0;
+        for (int i = 0; i < expression.length() && depth >= 0; i++) {
+            char c = expression.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (!Character.isLetterOrDigit(c) && EXPRESSION_CHARACTERS.indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return depth == 0 && !expression.trim().isEmpty();
+    }
+}
@@ -1,7 +1,8 @@
 package org.esa.snap.s2tbx.cep.util;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
@@ -11,7 +12,8 @@ import java.util.logging.LogRecord;
  * @author COsmin Cara
  */
 public class LogFormatter extends Formatter {
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter dateFormat =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
 
     @Override
     public String format(LogRecord record) {
@@ -25,6 +27,6 @@ public class LogFormatter extends Formatter {
     }
 
     private String formatTime(long millis) {
-        return dateFormat.format(new Date(millis));
+        return dateFormat.format(Instant.ofEpochMilli(millis));
     }
-}
\ No newline at end of file
+}
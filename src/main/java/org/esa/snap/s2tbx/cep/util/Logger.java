@@ -1,10 +1,22 @@
 package org.esa.snap.s2tbx.cep.util;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.*;
 
 /**
  * Simple logger class.
+ * Messages are handed, with their arguments, to a bounded buffer, from which they are formatted and written by
+ * a dedicated thread, hence the logging threads neither format the messages nor wait for the file handlers.
+ * When the buffer is full, informative messages are dropped without being formatted, while warnings
+ * and errors wait for room. The count of the dropped messages is logged with the next message written, or
+ * when the log is flushed.
+ * The handlers are not registered with the JUL loggers, so that they are not closed by the
+ * <code>LogManager</code> before the buffer is flushed at shutdown.
  *
  * @author Cosmin Cara
  */
@@ -16,7 +28,12 @@ public class Logger {
         void error(String message, Object...args);
     }
 
-    private static final java.util.logging.Logger logger;
+    private static final int BUFFER_SIZE = 65536;
+    private static final List<Handler> handlers;
+    private static final BlockingQueue<Event> buffer;
+    private static final AtomicLong dropped;
+    private static final Thread writer;
+    private static volatile boolean flushed;
     private static String rootLogFile;
     private static CustomLogger rootLogger = new CustomLogger() {
         @Override
@@ -36,17 +53,20 @@ public class Logger {
     };
 
     static {
-        logger = java.util.logging.Logger.getLogger(java.util.logging.Logger.GLOBAL_LOGGER_NAME);
-        java.util.logging.Logger rootLogger = java.util.logging.Logger.getLogger("");
-        Handler[] handlers = rootLogger.getHandlers();
-        if (handlers[0] instanceof ConsoleHandler) {
-            handlers[0].setFormatter(new LogFormatter());
-        }
-        logger.setLevel(Level.ALL);
+        handlers = new CopyOnWriteArrayList<>();
+        Handler consoleHandler = new ConsoleHandler();
+        consoleHandler.setFormatter(new LogFormatter());
+        handlers.add(consoleHandler);
+        buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        dropped = new AtomicLong();
+        writer = new Thread(Logger::write, "logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush, "logger-flush"));
     }
 
     public static void initialize(String masterLogFile) throws IOException {
-        synchronized (logger) {
+        synchronized (handlers) {
             if (rootLogFile == null) {
                 rootLogFile = masterLogFile;
                 registerHandler(rootLogFile);
@@ -61,72 +81,193 @@ public class Logger {
     private static Handler registerHandler(String logFile) throws IOException {
         Handler fileHandler = new FileHandler(logFile, true);
         fileHandler.setFormatter(new LogFormatter());
-        logger.addHandler(fileHandler);
+        handlers.add(fileHandler);
         return fileHandler;
     }
 
     private static void information(String message, Object...args) {
-        if (args != null && args.length > 0) {
-            message = String.format(message, args);
-        }
-        logger.info(message);
+        enqueue(new Event(null, Level.INFO, message, args));
     }
 
     private static void warning(String message, Object...args) {
-        if (args != null && args.length > 0) {
-            message = String.format(message, args);
-        }
-        logger.warning(message);
+        enqueue(new Event(null, Level.WARNING, message, args));
     }
 
     private static void err(String message, Object...args) {
-        if (args != null && args.length > 0) {
-            message = String.format(message, args);
+        enqueue(new Event(null, Level.SEVERE, message, args));
+    }
+
+    private static void enqueue(Event event) {
+        if (flushed) {
+            synchronized (buffer) {
+                publish(event);
+            }
+        } else if (!buffer.offer(event)) {
+            if (event.level == Level.INFO) {
+                dropped.incrementAndGet();
+            } else {
+                try {
+                    buffer.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static void write() {
+        try {
+            while (true) {
+                Event event = buffer.take();
+                synchronized (buffer) {
+                    publish(event);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // the remaining messages are written by flush()
+        }
+    }
+
+    /**
+     * Stops the writer thread, writes the messages still in the buffer and closes the log files.
+     * The messages logged afterwards (by other shutdown hooks) only go to the console.
+     */
+    private static void flush() {
+        writer.interrupt();
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (buffer) {
+            flushed = true;
+            Event event;
+            while ((event = buffer.poll()) != null) {
+                publish(event);
+            }
+            reportDropped();
+        }
+        handlers.forEach(Handler::close);
+    }
+
+    private static String format(String message, Object[] args) {
+        if (args == null || args.length == 0) {
+            return message;
+        }
+        try {
+            return String.format(message, args);
+        } catch (RuntimeException e) {
+            // also covers the arguments whose representation failed, so that the writer thread survives
+            return String.format("Cannot log message [%s]: %s", message, e.getMessage());
         }
-        logger.severe(message);
     }
 
+    private static void reportDropped() {
+        long count = dropped.getAndSet(0);
+        if (count > 0) {
+            publish(null, new LogRecord(Level.WARNING, String.format("%s log messages were dropped", count)));
+        }
+    }
+
+    private static void publish(Event event) {
+        reportDropped();
+        if (event.closing) {
+            event.handler.close();
+            return;
+        }
+        LogRecord record = new LogRecord(event.level, format(event.message, event.args));
+        record.setMillis(event.millis);
+        publish(event.handler, record);
+    }
+
+    private static void publish(Handler handler, LogRecord record) {
+        if (handler != null) {
+            handler.publish(record);
+        } else {
+            for (Handler rootHandler : handlers) {
+                rootHandler.publish(record);
+            }
+        }
+    }
+
+    /**
+     * A message waiting in the buffer, with the arguments it is formatted with when written.
+     */
+    private static class Event {
+        private final Handler handler;
+        private final Level level;
+        private final String message;
+        private final Object[] args;
+        private final long millis;
+        private final boolean closing;
+
+        Event(Handler handler, Level level, String message, Object[] args) {
+            this(handler, level, message, args, false);
+        }
+
+        Event(Handler handler, Level level, String message, Object[] args, boolean closing) {
+            this.handler = handler;
+            this.level = level;
+            this.message = message;
+            this.args = args;
+            this.millis = System.currentTimeMillis();
+            this.closing = closing;
+        }
+    }
+
+    /**
+     * Logger writing to its own file, such as the output of a single job.
+     */
     public static class ScopeLogger implements CustomLogger, AutoCloseable {
 
-        private Handler fileHandler;
+        private volatile Handler fileHandler;
 
         public ScopeLogger(String logFile) throws IOException {
-            //fileHandler = registerHandler(logFile);
             fileHandler = new FileHandler(logFile);
             fileHandler.setFormatter(new LogFormatter());
         }
 
         @Override
         public void info(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
-            }
-            fileHandler.publish(new LogRecord(Level.INFO, message));
+            log(Level.INFO, message, args);
         }
 
         @Override
         public void warn(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
-            }
-            fileHandler.publish(new LogRecord(Level.WARNING, message));
+            log(Level.WARNING, message, args);
         }
 
         @Override
         public void error(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
+            log(Level.SEVERE, message, args);
+        }
+
+        private void log(Level level, String message, Object...args) {
+            Handler handler = fileHandler;
+            if (handler != null) {
+                enqueue(new Event(handler, level, message, args));
             }
-            fileHandler.publish(new LogRecord(Level.SEVERE, message));
         }
 
+        /**
+         * Closes the file once the messages already logged are written.
+         */
         @Override
         public void close() throws IOException {
             if (fileHandler != null) {
-                fileHandler.close();
-                logger.removeHandler(fileHandler);
+                try {
+                    if (flushed) {
+                        fileHandler.close();
+                    } else {
+                        buffer.put(new Event(fileHandler, Level.INFO, null, null, true));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fileHandler.close();
+                }
+                fileHandler = null;
             }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,186 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Parallel scanner of an input folder for products.
+ * The product folders are inspected concurrently (fork/join), each one being listed only until
+ * the first metadata file matching one of the given patterns is found.
+ *
+ * @author Cosmin Cara
+ */
+public class ProductScanner {
+
+    private static final int DEFAULT_PARALLELISM = 16;
+    private static final int SPLIT_THRESHOLD = 8;
+
+    private final List<Pattern> folderPatterns;
+    private final List<Pattern> metadataPatterns;
+    private final String metadataGlob;
+    private final boolean lookForFolders;
+    private int parallelism;
+
+    /**
+     * Creates a scanner that looks for product folders or for the metadata files inside product folders.
+     *
+     * @param folderPatterns    The patterns of product folder names
+     * @param metadataPatterns  The patterns of metadata file names
+     * @param metadataGlob      The glob that pre-filters the metadata file names (e.g. <code>*.{xml,XML}</code>)
+     * @param lookForFolders    If <code>true</code>, the inputs are the product folders, otherwise the metadata files
+     */
+    public ProductScanner(List<Pattern> folderPatterns, List<Pattern> metadataPatterns, String metadataGlob,
+                          boolean lookForFolders) {
+        this.folderPatterns = new ArrayList<>(folderPatterns);
+        this.metadataPatterns = new ArrayList<>(metadataPatterns);
+        this.metadataGlob = metadataGlob;
+        this.lookForFolders = lookForFolders;
+        this.parallelism = DEFAULT_PARALLELISM;
+    }
+
+    /**
+     * Sets the number of product folders inspected concurrently. Since the scan is I/O bound,
+     * it may exceed the number of processors.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Scans the given folder and returns the inputs found (product folders or metadata files), sorted by name.
+     *
+     * @param inputFolder   The folder containing the products
+     *
+     * @throws IOException
+     */
+    public List<Path> scan(Path inputFolder) throws IOException {
+        List<Path> inputs = Collections.synchronizedList(new ArrayList<>());
+        scan(inputFolder, inputs::add);
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * Scans the given folder and hands each input found (product folder or metadata file) to the given consumer
+     * as soon as it is found. The consumer may be invoked concurrently and may block, for example when
+     * feeding a bounded queue.
+     *
+     * @param inputFolder   The folder containing the products
+     * @param consumer      The consumer of the inputs
+     *
+     * @throws IOException
+     */
+    public void scan(Path inputFolder, Consumer<Path> consumer) throws IOException {
+        List<Path> productFolders = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inputFolder)) {
+            for (Path path : stream) {
+                productFolders.add(path);
+            }
+        }
+        Collections.sort(productFolders);
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            pool.invoke(new ScanTask(productFolders, 0, productFolders.size(), consumer));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the input of the given product folder, if the folder is a product.
+     *
+     * @param productFolder     The candidate product folder
+     *
+     * @throws IOException
+     */
+    public Optional<Path> findInput(Path productFolder) throws IOException {
+        if (this.lookForFolders) {
+            return matches(this.folderPatterns, productFolder) ? Optional.of(productFolder) : Optional.empty();
+        }
+        return findMetadata(productFolder);
+    }
+
+    /**
+     * Tells if the given folder is a complete product, i.e. its name matches one of the product folder patterns
+     * and it contains a metadata file.
+     *
+     * @param productFolder     The candidate product folder
+     *
+     * @throws IOException
+     */
+    public boolean isComplete(Path productFolder) throws IOException {
+        return isProductName(productFolder) && findMetadata(productFolder).isPresent();
+    }
+
+    /**
+     * Tells if the name of the given folder matches one of the product folder patterns.
+     *
+     * @param productFolder     The candidate product folder
+     */
+    public boolean isProductName(Path productFolder) {
+        return matches(this.folderPatterns, productFolder);
+    }
+
+    private Optional<Path> findMetadata(Path productFolder) throws IOException {
+        if (!Files.isDirectory(productFolder)) {
+            return Optional.empty();
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(productFolder, this.metadataGlob)) {
+            for (Path path : stream) {
+                if (matches(this.metadataPatterns, path)) {
+                    return Optional.of(path);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean matches(List<Pattern> patterns, Path path) {
+        String name = path.getFileName().toString();
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Path> folders;
+        private final int from;
+        private final int to;
+        private final Consumer<Path> consumer;
+
+        ScanTask(List<Path> folders, int from, int to, Consumer<Path> consumer) {
+            this.folders = folders;
+            this.from = from;
+            this.to = to;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= SPLIT_THRESHOLD) {
+                for (int i = this.from; i < this.to; i++) {
+                    try {
+                        findInput(this.folders.get(i)).ifPresent(this.consumer);
+                    } catch (IOException e) {
+                        Logger.getRootLogger().warn("Cannot inspect %s: %s", this.folders.get(i), e.getMessage());
+                    }
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ScanTask(this.folders, this.from, middle, this.consumer),
+                          new ScanTask(this.folders, middle, this.to, this.consumer));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches an input folder for newly arriving products.
+ * The folder is observed through a {@link WatchService} and, since file system notifications are not
+ * delivered for network mounts (such as CIFS), it is also listed periodically.
+ * A new product is reported once it is complete (its name matches a product pattern and its metadata
+ * file is present) and its folder has not changed for a quiet period.
+ *
+ * @author Cosmin Cara
+ */
+public class ProductWatcher {
+
+    private final Path folder;
+    private final ProductScanner scanner;
+    private final long pollInterval;
+    private final long quietPeriod;
+    private final Set<Path> reported;
+    private final Set<Path> candidates;
+    private final Logger.CustomLogger logger;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a watcher for the given folder.
+     *
+     * @param folder        The input folder
+     * @param scanner       The scanner used to check and resolve the products
+     * @param pollInterval  The interval (in seconds) between two listings of the folder
+     * @param quietPeriod   The time (in seconds) a product folder should stay unchanged before being reported
+     */
+    public ProductWatcher(Path folder, ProductScanner scanner, long pollInterval, long quietPeriod) {
+        this.folder = folder;
+        this.scanner = scanner;
+        this.pollInterval = TimeUnit.SECONDS.toMillis(Math.max(1, pollInterval));
+        this.quietPeriod = TimeUnit.SECONDS.toMillis(Math.max(0, quietPeriod));
+        this.reported = new HashSet<>();
+        this.candidates = new LinkedHashSet<>();
+        this.logger = Logger.getRootLogger();
+    }
+
+    /**
+     * Watches the folder until {@link #stop()} is invoked, handing the input of each new complete product
+     * (as resolved by the scanner) to the given consumer.
+     *
+     * @param consumer      The consumer of the inputs
+     *
+     * @throws IOException
+     */
+    public void watch(Consumer<Path> consumer) throws IOException {
+        WatchService watchService = null;
+        try {
+            watchService = this.folder.getFileSystem().newWatchService();
+            this.folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Cannot watch %s (%s). Will only poll the folder", this.folder, e.getMessage());
+            watchService = null;
+        }
+        logger.info("Watching %s for new products", this.folder);
+        long nextPoll = 0;
+        try {
+            while (!this.stopped) {
+                long now = System.currentTimeMillis();
+                if (now >= nextPoll) {
+                    poll();
+                    nextPoll = now + this.pollInterval;
+                }
+                checkCandidates(consumer);
+                long wait = Math.min(nextPoll - System.currentTimeMillis(),
+                                     this.candidates.isEmpty() ? this.pollInterval : Math.max(1000, this.quietPeriod));
+                if (wait <= 0) {
+                    continue;
+                }
+                if (watchService != null) {
+                    WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                nextPoll = 0;
+                            } else {
+                                addCandidate(this.folder.resolve((Path) event.context()));
+                            }
+                        }
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+    }
+
+    /**
+     * Signals the watcher to stop.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    private void poll() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.folder)) {
+            for (Path path : stream) {
+                addCandidate(path);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot list %s: %s", this.folder, e.getMessage());
+        }
+    }
+
+    private void addCandidate(Path path) {
+        if (!this.reported.contains(path)) {
+            this.candidates.add(path);
+        }
+    }
+
+    private void checkCandidates(Consumer<Path> consumer) {
+        Iterator<Path> iterator = this.candidates.iterator();
+        while (iterator.hasNext() && !this.stopped) {
+            Path candidate = iterator.next();
+            try {
+                if (!this.scanner.isProductName(candidate)) {
+                    iterator.remove();
+                    this.reported.add(candidate);
+                } else if (!Files.isDirectory(candidate)) {
+                    iterator.remove();
+                } else if (this.scanner.isComplete(candidate) &&
+                        System.currentTimeMillis() - Files.getLastModifiedTime(candidate).toMillis() >= this.quietPeriod) {
+                    iterator.remove();
+                    this.reported.add(candidate);
+                    Optional<Path> input = this.scanner.findInput(candidate);
+                    if (input.isPresent()) {
+                        consumer.accept(input.get());
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Cannot inspect %s: %s", candidate, e.getMessage());
+            }
+        }
+    }
+}
@@ -6,7 +6,12 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Helper class for various operations.
@@ -15,7 +20,8 @@ import java.util.regex.Pattern;
  */
 public class Utilities {
 
-    private static Boolean supportsPosix;
+    private static volatile Boolean supportsPosix;
+    private static final Map<String, Pattern> patternCache = new ConcurrentHashMap<>();
 
 
     /**
@@ -46,15 +52,75 @@ public class Utilities {
      * @throws IOException
      */
     public static Path ensurePermissions(Path file) throws IOException {
+        return ensurePermissions(file, Constants.DEFAULT_PERMISSIONS);
+    }
+
+    /**
+     * On Unix file systems, sets the given permissions to the given file (or folder).
+     * @param file          The file or folder to set permissions to
+     * @param permissions   The permissions, as <code>rwxr-xr-x</code>
+     *
+     * @throws IOException
+     */
+    public static Path ensurePermissions(Path file, String permissions) throws IOException {
         if (file != null && Files.exists(file)) {
             if (isPosixFileSystem()) {
-                Set<PosixFilePermission> perms = PosixFilePermissions.fromString(Constants.DEFAULT_PERMISSIONS);
+                Set<PosixFilePermission> perms = PosixFilePermissions.fromString(permissions);
                 file = Files.setPosixFilePermissions(file, perms);
             }
         }
         return file;
     }
 
+    /**
+     * On Unix file systems, sets in parallel the given permissions to the given files (and the contents of
+     * the given folders). A file whose permissions cannot be changed (e.g. written through the share
+     * by another user) is accepted if it is readable.
+     *
+     * @param paths         The files or folders to set permissions to
+     * @param permissions   The permissions, as <code>rwxr-xr-x</code>
+     *
+     * @return  The paths that don't exist
+     *
+     * @throws IOException  If a file is not readable and its permissions could not be set
+     */
+    public static List<Path> ensurePermissions(Collection<Path> paths, String permissions) throws IOException {
+        List<Path> missing = Collections.synchronizedList(new ArrayList<>());
+        List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+        paths.parallelStream().forEach(path -> {
+            if (!Files.exists(path)) {
+                missing.add(path);
+                return;
+            }
+            List<Path> files = Collections.singletonList(path);
+            try {
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> stream = Files.walk(path)) {
+                        files = stream.collect(Collectors.toList());
+                    }
+                }
+            } catch (IOException e) {
+                errors.add(e);
+            }
+            for (Path file : files) {
+                try {
+                    ensurePermissions(file, permissions);
+                } catch (IOException e) {
+                    if (!Files.isReadable(file)) {
+                        errors.add(e);
+                    }
+                }
+            }
+        });
+        if (!errors.isEmpty()) {
+            IOException exception = new IOException(String.format("Cannot set the permissions of %s files", errors.size()),
+                                                    errors.get(0));
+            errors.stream().skip(1).forEach(exception::addSuppressed);
+            throw exception;
+        }
+        return missing;
+    }
+
     /**
      * Finds first file of the given extension in the given folder (not recursive).
      *
@@ -64,9 +130,15 @@ public class Utilities {
      * @throws IOException
      */
     public static Optional<Path> findFirst(Path folder, String regEx) throws IOException {
-        List<Path> files = listFiles(folder, 1);
-        Pattern pattern = Pattern.compile(regEx);
-        return files.stream().filter(p -> pattern.matcher(p.toString()).matches()).findFirst();
+        Pattern pattern = patternCache.computeIfAbsent(regEx, Pattern::compile);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                if (pattern.matcher(path.toString()).matches()) {
+                    return Optional.of(path);
+                }
+            }
+        }
+        return Optional.empty();
     }
 
     /**
@@ -110,17 +182,33 @@ public class Utilities {
         return files;
     }
 
+    /**
+     * Creates a factory of daemon threads named after the given prefix and a sequence number.
+     *
+     * @param prefix        The thread name prefix
+     */
+    public static ThreadFactory newThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     private static boolean isPosixFileSystem() {
         if (supportsPosix == null) {
-            supportsPosix = Boolean.FALSE;
+            // computed aside, so that concurrent callers never see a transient value
+            boolean posix = false;
             FileSystem fileSystem = FileSystems.getDefault();
             Iterable<FileStore> fileStores = fileSystem.getFileStores();
             for (FileStore fs : fileStores) {
-                supportsPosix = fs.supportsFileAttributeView(PosixFileAttributeView.class);
-                if (supportsPosix) {
+                posix = fs.supportsFileAttributeView(PosixFileAttributeView.class);
+                if (posix) {
                     break;
                 }
             }
+            supportsPosix = posix;
         }
         return supportsPosix;
     }
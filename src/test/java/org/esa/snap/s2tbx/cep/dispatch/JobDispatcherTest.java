@@ -0,0 +1,245 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.esa.snap.s2tbx.cep.executors.SimulationProfile;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the dispatcher on simulated nodes, with a stager that only counts the transfers.
+ *
+ * @author Cosmin Cara
+ */
+public class JobDispatcherTest {
+
+    private static final long INPUT_SIZE = 700;
+    private static final long MIN_FREE_DISK = 2048;
+
+    private List<Node> nodes;
+    private CountingStager stager;
+    private JobDispatcher dispatcher;
+    private ExecutorService slots;
+
+    private void create(int nodeCount, int slotCount) {
+        create(nodeCount, slotCount, (jobs, node, attempt) -> Collections.singletonList("gpt"));
+    }
+
+    private void create(int nodeCount, int slotCount, JobDispatcher.CommandFactory commandFactory) {
+        this.nodes = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            this.nodes.add(new Node("slave" + i, "Linux", slotCount));
+        }
+        this.stager = new CountingStager();
+        this.dispatcher = new JobDispatcher(this.nodes, commandFactory, 100);
+        this.dispatcher.simulate(new SimulationProfile().setMedianRuntime(20000).setSigma(0)
+                                                        .setStragglers(0, 1).setTimeScale(0.001));
+        this.dispatcher.setStager(this.stager);
+        this.slots = Executors.newFixedThreadPool(nodeCount * slotCount);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.dispatcher != null) {
+            this.dispatcher.stop();
+            this.slots.shutdownNow();
+        }
+    }
+
+    @Test
+    public void prefetchedInputsAreStagedOnce() throws Exception {
+        create(2, 2);
+        this.dispatcher.setPrefetchDepth(2);
+        // room for two inputs on the scratch folder of each node
+        updateStatus(MIN_FREE_DISK + 2 * INPUT_SIZE);
+        List<Job> jobs = run(30);
+        for (Job job : jobs) {
+            assertEquals(job.toString(), JobState.DONE, job.getState());
+            assertEquals(job.toString(), 1, this.stager.count(this.stager.stagedIn, job));
+            assertEquals(job.toString(), 1, this.stager.count(this.stager.stagedOut, job));
+            assertEquals(job.toString(), 1, this.stager.count(this.stager.cleaned, job));
+        }
+        awaitReleasedScratch();
+    }
+
+    @Test
+    public void failedBatchIsRetriedJobByJob() throws Exception {
+        // a single slot, so that the failing job is in a batch
+        create(1, 1);
+        this.dispatcher.setBatching(4, 0);
+        updateStatus(Long.MAX_VALUE);
+        this.stager.failures.put("product_3", new AtomicInteger(1));
+        List<Job> jobs = run(8);
+        for (Job job : jobs) {
+            assertEquals(job.toString(), JobState.DONE, job.getState());
+        }
+        // the failed batch and the retry of its job
+        assertEquals(2, this.stager.count(this.stager.stagedIn, jobs.get(2)));
+        assertEquals(1, this.stager.count(this.stager.stagedOut, jobs.get(2)));
+    }
+
+    @Test
+    public void failedJobDoesNotBlockCompletion() throws Exception {
+        create(2, 2);
+        this.dispatcher.setPrefetchDepth(1);
+        updateStatus(Long.MAX_VALUE);
+        this.stager.failures.put("product_5", new AtomicInteger(Integer.MAX_VALUE));
+        List<Job> jobs = run(10);
+        for (Job job : jobs) {
+            assertEquals(job.toString(), "product_5.SAFE".equals(job.getInput().toString()) ? JobState.FAILED : JobState.DONE,
+                         job.getState());
+        }
+        assertEquals(0, this.stager.count(this.stager.stagedOut, jobs.get(4)));
+        awaitReleasedScratch();
+    }
+
+    @Test
+    public void stragglerWithoutOtherNodeFails() throws Exception {
+        // the node of the straggler is the only one with an idle slot, so the straggler cannot get a backup copy
+        Map<String, AtomicInteger> attempts = createStraggler(1, 2, Integer.MAX_VALUE);
+        List<Job> jobs = run(6, 10);
+        for (Job job : jobs) {
+            assertEquals(job.toString(), job == jobs.get(5) ? JobState.FAILED : JobState.DONE, job.getState());
+        }
+        assertEquals(1, attempts.get("product_6_0").get());
+        assertNull(attempts.get("product_6_1"));
+    }
+
+    @Test
+    public void pendingBackupOfFailedJobIsRetried() throws Exception {
+        // the backup copy is scheduled for the idle slot of the second node, that never polls it
+        Map<String, AtomicInteger> attempts = createStraggler(2, 1, 0);
+        List<Job> jobs = run(6, 10);
+        for (Job job : jobs) {
+            assertEquals(job.toString(), JobState.DONE, job.getState());
+        }
+        assertEquals(1, jobs.get(5).getAttempt());
+        assertEquals(1, attempts.get("product_6_1").get());
+    }
+
+    /**
+     * Creates nodes served by a single worker, so that only the first slot of the first node executes jobs.
+     * The first attempt of product_6 straggles and fails, its attempts up to the given one failing as well.
+     */
+    private Map<String, AtomicInteger> createStraggler(int nodeCount, int slotCount, int lastFailedAttempt) {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        create(nodeCount, slotCount, (jobs, node, attempt) -> {
+            String name = CountingStager.name(jobs.get(0));
+            attempts.computeIfAbsent(name + "_" + attempt, k -> new AtomicInteger()).incrementAndGet();
+            if ("product_6".equals(name) && attempt <= lastFailedAttempt) {
+                if (attempt == 0) {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                throw new IOException("cannot execute " + name);
+            }
+            return Collections.singletonList("gpt");
+        });
+        this.dispatcher.setSpeculationFactor(2);
+        this.dispatcher.setMonitorInterval(20, TimeUnit.MILLISECONDS);
+        this.slots.shutdown();
+        this.slots = Executors.newFixedThreadPool(1);
+        updateStatus(Long.MAX_VALUE);
+        return attempts;
+    }
+
+    private void updateStatus(long freeDisk) {
+        for (Node node : this.nodes) {
+            this.dispatcher.updateStatus(node, new NodeStatus(8, 0, 65536, 65536, freeDisk));
+        }
+    }
+
+    private List<Job> run(int count) throws InterruptedException {
+        return run(count, 60);
+    }
+
+    private List<Job> run(int count, long timeout) throws InterruptedException {
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            jobs.add(this.dispatcher.submit(Paths.get("product_" + i + ".SAFE")));
+        }
+        this.dispatcher.close();
+        this.dispatcher.start(this.slots);
+        assertTrue(this.dispatcher.awaitCompletion(timeout, TimeUnit.SECONDS));
+        return jobs;
+    }
+
+    private void awaitReleasedScratch() throws InterruptedException {
+        // the scratch of the last attempts is released after their completion is recorded
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.nodes.stream().anyMatch(node -> node.getReservedScratch() > 0) &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        for (Node node : this.nodes) {
+            assertEquals(node.getName(), 0, node.getReservedScratch());
+        }
+    }
+
+    private static class CountingStager implements Stager {
+        private final Map<String, AtomicInteger> stagedIn = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> stagedOut = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> cleaned = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean isStaged(Node node) { return true; }
+
+        @Override
+        public String stageFile(Node node, Path file) { return "/scratch/" + file.getFileName(); }
+
+        @Override
+        public long getInputSize(Job job) { return INPUT_SIZE; }
+
+        @Override
+        public void stageIn(Job job, Node node, int attempt) throws IOException {
+            increment(this.stagedIn, job);
+            AtomicInteger failures = this.failures.get(name(job));
+            if (failures != null && failures.getAndDecrement() > 0) {
+                throw new IOException("cannot copy " + job.getInput());
+            }
+        }
+
+        @Override
+        public String getRemoteInput(Job job, int attempt) { return "/scratch/" + job.getInput(); }
+
+        @Override
+        public String getRemoteResult(Job job, int attempt) { return "/scratch/" + job.getResultName(attempt) + ".tif"; }
+
+        @Override
+        public void stageOut(Job job, Node node, int attempt) { increment(this.stagedOut, job); }
+
+        @Override
+        public void cleanup(Job job, Node node, int attempt) { increment(this.cleaned, job); }
+
+        int count(Map<String, AtomicInteger> counts, Job job) {
+            AtomicInteger count = counts.get(name(job));
+            return count != null ? count.get() : 0;
+        }
+
+        private static void increment(Map<String, AtomicInteger> counts, Job job) {
+            counts.computeIfAbsent(name(job), k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        private static String name(Job job) {
+            String name = job.getInput().toString();
+            return name.substring(0, name.indexOf('.'));
+        }
+    }
+}
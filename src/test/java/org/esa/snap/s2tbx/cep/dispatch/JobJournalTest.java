@@ -0,0 +1,116 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Cosmin Cara
+ */
+public class JobJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path input;
+    private Path output;
+
+    @Before
+    public void setUp() throws IOException {
+        this.input = folder.newFile("S2A_product.zip").toPath();
+        Files.write(this.input, new byte[] { 1, 2, 3 });
+        this.output = folder.newFolder("output").toPath();
+    }
+
+    @Test
+    public void fingerprintIsStable() throws IOException {
+        assertEquals(JobJournal.fingerprint(input, "Resample|BandMaths"),
+                     JobJournal.fingerprint(input, "Resample|BandMaths"));
+    }
+
+    @Test
+    public void fingerprintChangesWithGraphAndFormat() throws IOException {
+        String fingerprint = JobJournal.fingerprint(input, "Resample|BandMaths");
+        assertNotEquals(fingerprint, JobJournal.fingerprint(input, "Resample"));
+        assertNotEquals(fingerprint, JobJournal.fingerprint(input, "Resample|BandMaths|BigTIFF, LZW compression"));
+    }
+
+    @Test
+    public void fingerprintChangesWithInput() throws IOException {
+        String fingerprint = JobJournal.fingerprint(input, "Resample");
+        Files.write(input, new byte[] { 1, 2, 3, 4 });
+        assertNotEquals(fingerprint, JobJournal.fingerprint(input, "Resample"));
+        String resized = JobJournal.fingerprint(input, "Resample");
+        Files.setLastModifiedTime(input, FileTime.fromMillis(Files.getLastModifiedTime(input).toMillis() - 60000));
+        assertNotEquals(resized, JobJournal.fingerprint(input, "Resample"));
+    }
+
+    @Test
+    public void doneWhenResultExists() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("journal.tsv");
+        String fingerprint = JobJournal.fingerprint(input, "Resample");
+        Job job = new Job(1, Paths.get("S2A_product.zip"), fingerprint);
+        try (JobJournal journal = new JobJournal(journalFile)) {
+            journal.setResultResolver(name -> output.resolve(name + ".tif"));
+            job.setState(JobState.DONE);
+            journal.stateChanged(job);
+            assertFalse(journal.isDone(job.getInput(), fingerprint));
+            Files.createFile(output.resolve(job.getResultName() + ".tif"));
+            assertTrue(journal.isDone(job.getInput(), fingerprint));
+            assertFalse(journal.isDone(job.getInput(), JobJournal.fingerprint(input, "BandMaths")));
+        }
+        // the state survives a restart
+        try (JobJournal journal = new JobJournal(journalFile)) {
+            assertTrue(journal.isDone(job.getInput(), fingerprint));
+        }
+    }
+
+    @Test
+    public void resultOfBackupAttempt() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("journal.tsv");
+        Job job = new Job(1, Paths.get("S2A_product.zip"), JobJournal.fingerprint(input, "Resample"));
+        try (JobJournal journal = new JobJournal(journalFile)) {
+            journal.setResultResolver(name -> output.resolve(name + ".tif"));
+            job.setAttempt(1);
+            job.setState(JobState.DONE);
+            journal.stateChanged(job);
+        }
+        // the master resumed from the journal reads the result of the attempt that completed the job
+        try (JobJournal journal = new JobJournal(journalFile)) {
+            assertEquals(output.resolve("result_S2A_product_1.tif").toString(), journal.get(job.getInput()).getResult());
+        }
+    }
+
+    @Test
+    public void doneWithoutExpectedResult() throws IOException {
+        String fingerprint = JobJournal.fingerprint(input, "Sen2Cor");
+        Job job = new Job(1, Paths.get("S2A_product.zip"), fingerprint);
+        try (JobJournal journal = new JobJournal(folder.getRoot().toPath().resolve("journal.tsv"))) {
+            job.setState(JobState.DONE);
+            journal.stateChanged(job);
+            assertTrue(journal.isDone(job.getInput(), fingerprint));
+            assertEquals("", journal.get(job.getInput()).getResult());
+        }
+    }
+
+    @Test
+    public void failedIsNotDone() throws IOException {
+        String fingerprint = JobJournal.fingerprint(input, "Sen2Cor");
+        Job job = new Job(1, Paths.get("S2A_product.zip"), fingerprint);
+        try (JobJournal journal = new JobJournal(folder.getRoot().toPath().resolve("journal.tsv"))) {
+            job.setState(JobState.FAILED);
+            journal.stateChanged(job);
+            assertFalse(journal.isDone(job.getInput(), fingerprint));
+            assertNull(journal.get(Paths.get("other.zip")));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.esa.snap.s2tbx.cep.dispatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Cosmin Cara
+ */
+public class NodeTest {
+
+    private static final long MIN_FREE_MEMORY = 1024;
+    private static final long MIN_FREE_DISK = 2048;
+
+    @Test
+    public void slotsFollowForeignLoad() {
+        Node node = new Node("slave1", "Linux", 4);
+        node.setStatus(new NodeStatus(8, 0, 32768, 16384, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(4, node.getActiveSlots());
+        // 4 cores used by other tenants leave room for 2 jobs of 2 cores
+        node.setStatus(new NodeStatus(8, 4, 32768, 16384, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(2, node.getActiveSlots());
+        // a fully loaded node keeps a slot
+        node.setStatus(new NodeStatus(8, 16, 32768, 16384, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(1, node.getActiveSlots());
+    }
+
+    @Test
+    public void ownJobsAreNotForeignLoad() {
+        Node node = new Node("slave1", "Linux", 4);
+        node.setStatus(new NodeStatus(8, 0, 32768, 16384, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertTrue(node.tryAcquire() >= 0);
+        assertTrue(node.tryAcquire() >= 0);
+        node.setStatus(new NodeStatus(8, 4, 32768, 16384, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(4, node.getActiveSlots());
+    }
+
+    @Test
+    public void lowMemoryKeepsBusySlots() {
+        Node node = new Node("slave1", "Linux", 4);
+        node.setStatus(new NodeStatus(8, 0, 32768, 16384, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        long first = node.tryAcquire();
+        long second = node.tryAcquire();
+        node.setStatus(new NodeStatus(8, 4, 32768, 512, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(2, node.getActiveSlots());
+        assertEquals(-1, node.tryAcquire());
+        node.release(first);
+        node.release(second);
+        node.setStatus(new NodeStatus(8, 0, 32768, 512, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(1, node.getActiveSlots());
+        assertTrue(node.tryAcquire() >= 0);
+    }
+
+    @Test
+    public void lowDiskStopsOnlyStagedNodes() {
+        Node node = new Node("slave1", "Linux", 4);
+        node.setStatus(new NodeStatus(8, 0, 32768, 16384, 1024), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(4, node.getActiveSlots());
+        node.setStaged(true);
+        node.setStatus(new NodeStatus(8, 0, 32768, 16384, 1024), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(0, node.getActiveSlots());
+        assertEquals(-1, node.tryAcquire());
+    }
+
+    @Test
+    public void memoryBudgetLimitsAdmission() {
+        Node node = new Node("slave1", "Linux", 4);
+        node.setJobLimits(0, 3000);
+        // 9 GB less 1 GB left to the system hold two jobs of 3000 MB heap plus the JVM overhead
+        node.setStatus(new NodeStatus(8, 0, 9216, 8192, 100000), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        assertEquals(4, node.getActiveSlots());
+        assertEquals(2, node.getJobThreads());
+        long memory = node.tryAcquire();
+        assertEquals(3750, memory);
+        assertTrue(node.tryAcquire() >= 0);
+        assertEquals(-1, node.tryAcquire());
+        assertEquals(2, node.getBusySlots());
+        node.release(memory);
+        assertEquals(1, node.getBusySlots());
+        assertTrue(node.tryAcquire() >= 0);
+    }
+
+    @Test
+    public void scratchReservations() {
+        Node node = new Node("slave1", "Linux", 2);
+        node.setStaged(true);
+        node.setStatus(new NodeStatus(8, 0, 32768, 16384, 3048), MIN_FREE_MEMORY, MIN_FREE_DISK);
+        // an input is always admitted when nothing is reserved
+        assertTrue(node.tryReserveScratch(1500));
+        assertFalse(node.tryReserveScratch(100));
+        node.releaseScratch(1500);
+        assertTrue(node.tryReserveScratch(600));
+        assertTrue(node.tryReserveScratch(400));
+        assertFalse(node.tryReserveScratch(1));
+    }
+}
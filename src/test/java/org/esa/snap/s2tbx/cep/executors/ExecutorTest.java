@@ -0,0 +1,51 @@
+package org.esa.snap.s2tbx.cep.executors;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Cosmin Cara
+ */
+public class ExecutorTest {
+
+    @Test
+    public void progressLine() throws Exception {
+        List<Integer> progress = drain("Executing processing graph\n....10%....20%....30%....40%....50%....60%....70%....80%....90% done.\n");
+        assertEquals(Arrays.asList(10, 20, 30, 40, 50, 60, 70, 80, 90), progress);
+    }
+
+    @Test
+    public void percentagesOutsideProgressLinesAreIgnored() throws Exception {
+        List<Integer> progress = drain("INFO: cloud coverage 45%\nWriting 12% of the tiles\n50%\nstatus ....30%\n");
+        assertEquals(Collections.emptyList(), progress);
+    }
+
+    @Test
+    public void progressIsReportedBeforeTheEndOfTheLine() throws Exception {
+        List<Integer> progress = drain("....10%....20%");
+        assertEquals(Arrays.asList(10, 20), progress);
+    }
+
+    private static List<Integer> drain(String output) throws Exception {
+        List<Integer> progress = new ArrayList<>();
+        Executor executor = new Executor("localhost", Collections.emptyList(), false, null) {
+            @Override
+            public int execute(List<String> outLines, boolean logMessages) throws IOException {
+                drain(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), outLines, logMessages);
+                return 0;
+            }
+        };
+        executor.setProgressListener(progress::add);
+        executor.execute(null, false);
+        return progress;
+    }
+}
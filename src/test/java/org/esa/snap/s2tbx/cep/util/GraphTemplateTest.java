@@ -0,0 +1,88 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Cosmin Cara
+ */
+public class GraphTemplateTest {
+
+    @Test
+    public void variablesOfTheGraph() {
+        GraphTemplate template = template();
+        assertEquals(new ArrayList<>(Arrays.asList("source", "target")), new ArrayList<>(template.getVariables()));
+        assertTrue(template.getXml().contains("${source}"));
+    }
+
+    @Test
+    public void plainValuesAreNotQuoted() {
+        assertEquals("-Psource=/mnt/share/in/S2A_MSIL1C.SAFE/MTD_MSIL1C.xml -Ptarget=/mnt/share/out/result_1.tif",
+                     template().bind(values("/mnt/share/in/S2A_MSIL1C.SAFE/MTD_MSIL1C.xml", "/mnt/share/out/result_1.tif")));
+        assertEquals("-Psource=C:\\share\\in\\product.SAFE -Ptarget=C:\\share\\out\\result_1.tif",
+                     template().bind(values("C:\\share\\in\\product.SAFE", "C:\\share\\out\\result_1.tif"), true));
+    }
+
+    @Test
+    public void specialValuesAreQuoted() {
+        assertEquals("-Psource='/mnt/my share/it'\\''s $HOME' -Ptarget='/out/a\"b.tif'",
+                     template().bind(values("/mnt/my share/it's $HOME", "/out/a\"b.tif")));
+        assertEquals("-Psource=\"C:\\my share\\product.SAFE\" -Ptarget=\"C:\\out\\a&b.tif\"",
+                     template().bind(values("C:\\my share\\product.SAFE", "C:\\out\\a&b.tif"), true));
+        assertEquals("-Psource='' -Ptarget='a\\b'", template().bind(values("", "a\\b")));
+    }
+
+    @Test
+    public void quotedValuesSurviveTheShell() throws Exception {
+        Assume.assumeTrue(Files.isExecutable(Paths.get("/bin/sh")));
+        String source = "/mnt/my share/it's $HOME `id` \"quoted\" \\ & ; *";
+        String target = "/out/result_1.tif";
+        Process process = new ProcessBuilder("/bin/sh", "-c",
+                                             "printf '%s\\n' " + template().bind(values(source, target)))
+                .redirectErrorStream(true).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        assertEquals(0, process.waitFor());
+        assertEquals(Arrays.asList("-Psource=" + source, "-Ptarget=" + target), lines);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingValue() {
+        template().bind(Collections.singletonMap("source", "/in"));
+    }
+
+    private static GraphTemplate template() {
+        GraphDescriptor graph = new GraphDescriptor();
+        graph.addNode("Read", null);
+        graph.getNode(0).setArgument("file", GraphTemplate.variable("source"));
+        graph.addNode("Write", null);
+        graph.getNode(1).setArgument("file", GraphTemplate.variable("target"));
+        return GraphTemplate.compile(graph);
+    }
+
+    private static Map<String, String> values(String source, String target) {
+        Map<String, String> values = new HashMap<>();
+        values.put("source", source);
+        values.put("target", target);
+        return values;
+    }
+}
@@ -0,0 +1,91 @@
+package org.esa.snap.s2tbx.cep.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Cosmin Cara
+ */
+public class IntermediateFormatTest {
+
+    @Test
+    public void bandsOfVariables() {
+        assertEquals(Arrays.asList("B8", "B4", "B2"),
+                     usedBands("-Pvariables=[variable[name=ndvi,expression=(B8 - B4)/(B8 + B4)];" +
+                               "variable[name=b2,expression=sqrt(B2.raw) * PI]]"));
+    }
+
+    @Test
+    public void bandsOfConditions() {
+        assertEquals(Arrays.asList("B4", "SCL", "B3"),
+                     usedBands("-Pvariables=[variable[name=red,expression=B4]] " +
+                               "-Pconditions=[condition[name=clear,expression=SCL == 4 && B3 >= 0.1e2,output=false]]"));
+    }
+
+    @Test
+    public void commasInsideExpressions() {
+        assertEquals(Arrays.asList("B4", "B3", "B2"),
+                     usedBands("-Pvariables=[variable[name=max,expression=max(B4, B3)];variable[name=b2,expression=B2]]"));
+    }
+
+    @Test
+    public void unknownSymbolsFallBackToAllBands() {
+        // a mask or a virtual band is defined by an expression that is only known from the product
+        assertEquals(Collections.emptyList(),
+                     usedBands("-Pvariables=[variable[name=red,expression=B4]] " +
+                               "-Pconditions=[condition[name=clear,expression=!opaque_clouds_60m,output=false]]"));
+        assertEquals(Collections.emptyList(),
+                     usedBands("-Pvariables=[variable[name=ndvi,expression=NDVI * 2]]"));
+    }
+
+    @Test
+    public void malformedExpressionsFallBackToAllBands() {
+        assertEquals(Collections.emptyList(), usedBands("-Pvariables=[variable[name=red,expression=(B4 * 2]]"));
+        assertEquals(Collections.emptyList(), usedBands("-Pvariables=[variable[name=red,expression=$B4]]"));
+    }
+
+    @Test
+    public void allBandsWithoutVariablesOrMosaic() {
+        assertEquals(Collections.emptyList(), usedBands("-PwestBound=10"));
+        GraphDescriptor master = new GraphDescriptor();
+        master.addNode("BandMaths", "-PtargetBands=[targetBand[name=red,expression=B4]]");
+        assertEquals(Collections.emptyList(), IntermediateFormat.usedBands(master));
+    }
+
+    @Test
+    public void subsetAppendedToTheSlaveGraph() {
+        GraphDescriptor master = new GraphDescriptor();
+        master.addNode("Mosaic", "-Pvariables=[variable[name=red,expression=B4]]");
+        IntermediateFormat format = IntermediateFormat.forMaster(master);
+        GraphDescriptor slave = new GraphDescriptor();
+        slave.addNode("Read", null);
+        slave.addNode("Resample", "-PtargetResolution=10");
+        format.apply(slave);
+        assertEquals(3, slave.getNodeCount());
+        assertEquals("Subset", slave.getNode(2).getOperator());
+        format.setBands("all");
+        assertTrue(format.getBands().isEmpty());
+    }
+
+    @Test
+    public void gptOptions() {
+        IntermediateFormat format = new IntermediateFormat();
+        format.setCompression("auto");
+        assertEquals(IntermediateFormat.COMPRESSION_LZW, format.getCompression());
+        format.setCompression("none");
+        format.setTileSize(256);
+        assertEquals("-J-Dsnap.dataio.bigtiff.compression.type=NONE -J-Dsnap.dataio.bigtiff.tiling.width=256 " +
+                     "-J-Dsnap.dataio.bigtiff.tiling.height=256", format.toGptOptions());
+    }
+
+    private static List<String> usedBands(String arguments) {
+        GraphDescriptor master = new GraphDescriptor();
+        master.addNode("Mosaic", arguments);
+        return IntermediateFormat.usedBands(master);
+    }
+}